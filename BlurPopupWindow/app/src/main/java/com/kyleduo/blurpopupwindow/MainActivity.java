@@ -13,6 +13,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.kyleduo.blurpopupwindow.library.BlurPopupWindow;
+import com.kyleduo.blurpopupwindow.library.PopupPool;
 
 import static com.kyleduo.blurpopupwindow.R.id.container;
 
@@ -58,7 +59,11 @@ public class MainActivity extends AppCompatActivity {
                         menu.show();
                         break;
                     case 1:
-                        new SharePopup.Builder(MainActivity.this).build().show();
+                        SharePopup sharePopup = PopupPool.obtain(MainActivity.this, SharePopup.class);
+                        if (sharePopup == null) {
+                            sharePopup = new SharePopup.Builder(MainActivity.this).setReusable(true).build();
+                        }
+                        sharePopup.show();
                         break;
                     case 2:
                         new BlurPopupWindow.Builder(MainActivity.this)
@@ -73,6 +78,7 @@ public class MainActivity extends AppCompatActivity {
                                 .setScaleRatio(0.2f)
                                 .setBlurRadius(10)
                                 .setTintColor(0x30000000)
+                                .setBlurCacheEnabled(true)
                                 .build()
                                 .show();
                         break;
@@ -0,0 +1,43 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import java.util.Random;
+
+/**
+ * Pixels standing in for a captured screen, at the size a popup blurs for a given screen and
+ * scale ratio.
+ */
+final class BenchmarkImage {
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    /**
+     * @param screen     screen size as "WIDTHxHEIGHT".
+     * @param scaleRatio scale ratio the capture is shrunk by before blurring.
+     */
+    BenchmarkImage(String screen, float scaleRatio) {
+        int separator = screen.indexOf('x');
+        width = Math.max(1, (int) (Integer.parseInt(screen.substring(0, separator)) * scaleRatio));
+        height = Math.max(1, (int) (Integer.parseInt(screen.substring(separator + 1)) * scaleRatio));
+        pixels = new int[width * height];
+        // Blocks of flat color with noise, roughly what a blurred UI looks like.
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int block = (x / 48) * 7 + (y / 32) * 13;
+                int base = 0x40 + (block * 37) % 0x80;
+                int noise = random.nextInt(16);
+                pixels[y * width + x] = 0xff000000 | (base + noise) << 16 | (base * 3 / 4 + noise) << 8 | (0xff - base + noise);
+            }
+        }
+    }
+
+    short[] toRgb565() {
+        short[] rgb565 = new short[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            rgb565[i] = StackBlur.pack565((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff);
+        }
+        return rgb565;
+    }
+}
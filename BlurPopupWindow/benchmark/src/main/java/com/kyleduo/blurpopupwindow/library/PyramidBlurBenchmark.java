@@ -0,0 +1,74 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PyramidBlur} for large radii, and its downsample / upsample passes alone, which are the
+ * pure pixel counterparts of the capture downscale and the final upscale. Runs serially so the
+ * numbers are per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PyramidBlurBenchmark {
+    @Param({"720x1280", "1080x1920", "1440x2560"})
+    public String screen;
+
+    @Param({"0.25", "0.4", "1"})
+    public float scaleRatio;
+
+    @Param({"25", "60", "150"})
+    public float radius;
+
+    private BenchmarkImage mImage;
+    private PyramidBlur mPyramidBlur;
+    private int[] mHalf;
+    private int mHalfWidth;
+    private int mHalfHeight;
+    private int[] mFull;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mImage = new BenchmarkImage(screen, scaleRatio);
+        mPyramidBlur = new PyramidBlur(new StackBlur(null, 1));
+        mHalfWidth = Math.max(1, mImage.width / 2);
+        mHalfHeight = Math.max(1, mImage.height / 2);
+        mHalf = new int[mHalfWidth * mHalfHeight];
+        mFull = new int[mImage.pixels.length];
+        PyramidBlur.downsampleRows(mImage.pixels, mImage.width, mImage.height, mHalf, mHalfWidth, 0, mHalfHeight);
+    }
+
+    @Benchmark
+    public int[] blur() {
+        mPyramidBlur.blur(mImage.pixels, mImage.width, mImage.height, radius);
+        return mImage.pixels;
+    }
+
+    @Benchmark
+    public int[] downsample() {
+        PyramidBlur.downsampleRows(mImage.pixels, mImage.width, mImage.height, mHalf, mHalfWidth, 0, mHalfHeight);
+        return mHalf;
+    }
+
+    @Benchmark
+    public int[] upsample() {
+        PyramidBlur.upsampleRows(mHalf, mHalfWidth, mHalfHeight, mFull, mImage.width, 0, mImage.height);
+        return mFull;
+    }
+}
@@ -0,0 +1,53 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RecursiveGaussianBlur} across radii, to compare with {@link StackBlurBenchmark} and
+ * {@link PyramidBlurBenchmark}. Radii from 5 up take the recursive path, whose time should not
+ * grow with the radius. Runs serially so the numbers are per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RecursiveGaussianBlurBenchmark {
+    @Param({"720x1280", "1080x1920", "1440x2560"})
+    public String screen;
+
+    @Param({"0.25", "0.4", "1"})
+    public float scaleRatio;
+
+    @Param({"3", "10", "25", "60", "150"})
+    public float radius;
+
+    private BenchmarkImage mImage;
+    private RecursiveGaussianBlur mRecursiveGaussianBlur;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mImage = new BenchmarkImage(screen, scaleRatio);
+        mRecursiveGaussianBlur = new RecursiveGaussianBlur(new StackBlur(null, 1));
+    }
+
+    @Benchmark
+    public int[] blur() {
+        mRecursiveGaussianBlur.blur(mImage.pixels, mImage.width, mImage.height, radius);
+        return mImage.pixels;
+    }
+}
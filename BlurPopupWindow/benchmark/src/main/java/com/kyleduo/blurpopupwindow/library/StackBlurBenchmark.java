@@ -0,0 +1,76 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StackBlur} on ARGB and RGB 565 pixels, serial and on a pool, at the sizes popups blur.
+ * Blurring works in place; its cost does not depend on the content, so the same pixels are
+ * blurred again on every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StackBlurBenchmark {
+    @Param({"720x1280", "1080x1920", "1440x2560"})
+    public String screen;
+
+    @Param({"0.25", "0.4", "1"})
+    public float scaleRatio;
+
+    @Param({"4", "10", "25"})
+    public int radius;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private BenchmarkImage mImage;
+    private short[] mPixels565;
+    private ExecutorService mExecutor;
+    private StackBlur mStackBlur;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mImage = new BenchmarkImage(screen, scaleRatio);
+        mPixels565 = mImage.toRgb565();
+        mExecutor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        mStackBlur = new StackBlur(mExecutor, parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int[] argb() {
+        mStackBlur.blur(mImage.pixels, mImage.width, mImage.height, radius);
+        return mImage.pixels;
+    }
+
+    @Benchmark
+    public short[] rgb565() {
+        mStackBlur.blur565(mPixels565, mImage.width, mImage.height, mImage.width, radius);
+        return mPixels565;
+    }
+}
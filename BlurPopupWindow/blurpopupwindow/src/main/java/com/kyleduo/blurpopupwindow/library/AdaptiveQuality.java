@@ -0,0 +1,162 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the scale ratio, radius and engine of popups in adaptive quality mode so that a blur
+ * stays within a latency budget.
+ * <p>
+ * Only downscaling and blurring get cheaper with the scale ratio, and rasterizing too when the
+ * capture was recorded and played back at the scaled size, as the Picture backend does when
+ * downscaling on capture. Their cost is measured as nanoseconds per blurred pixel and smoothed per
+ * engine. Capturing, waiting for the capture, rasterizing at full size and upscaling take about as
+ * long at any scale ratio, so their time is smoothed separately and taken off the budget. Before each blur the popup's scale ratio is lowered until
+ * the predicted time of the scaled stages fits what is left, and raised back up to the requested
+ * one as measured costs drop. If the fixed stages leave less than a quarter of the budget, the
+ * scaled stages still get a quarter: lowering quality further could not bring the blur within the
+ * budget anyway. The radius follows the scale ratio so the background looks as blurred as
+ * requested. When even {@link #MIN_SCALE_RATIO} does not fit, the cheapest engine measured so far
+ * is used instead, trying unmeasured ones first. On devices with little memory the scale ratio is
+ * capped from the first blur.
+ * <p>
+ * Costs are kept for the life of the process, so popups after the first one start tuned. Only
+ * used from the main thread.
+ */
+public class AdaptiveQuality {
+    private static final long DEFAULT_LATENCY_BUDGET = 32;
+    private static final float MIN_SCALE_RATIO = 0.05f;
+    private static final float LOW_MEMORY_SCALE_RATIO = 0.25f;
+    private static final int LOW_MEMORY_CLASS = 96;
+    private static final float SMOOTHING = 0.3f;
+    private static final float MIN_SCALED_SHARE = 0.25f;
+
+    private static AdaptiveQuality sInstance;
+
+    private final Context mContext;
+    private final boolean mLowMemory;
+    private final Map<Class<?>, Float> mCosts = new HashMap<>();
+    private float mFixedNanos = -1;
+    private long mLatencyBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LATENCY_BUDGET);
+
+    public static synchronized AdaptiveQuality getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new AdaptiveQuality(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AdaptiveQuality(Context context) {
+        mContext = context;
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean lowRam = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice();
+        mLowMemory = lowRam || activityManager.getMemoryClass() <= LOW_MEMORY_CLASS;
+    }
+
+    public long getLatencyBudget() {
+        return TimeUnit.NANOSECONDS.toMillis(mLatencyBudgetNanos);
+    }
+
+    /**
+     * @param latencyBudget milliseconds a blur may take, capture and background work together.
+     *                      32 by default.
+     */
+    public void setLatencyBudget(long latencyBudget) {
+        mLatencyBudgetNanos = TimeUnit.MILLISECONDS.toNanos(latencyBudget);
+    }
+
+    /**
+     * Forget all measured costs.
+     */
+    public void reset() {
+        mCosts.clear();
+        mFixedNanos = -1;
+    }
+
+    @MainThread
+    Decision decide(BlurPopupWindow popupWindow, int width, int height) {
+        float requestedScale = popupWindow.getScaleRatio();
+        float scaleRatio = mLowMemory ? Math.min(requestedScale, LOW_MEMORY_SCALE_RATIO) : requestedScale;
+        long pixels = (long) width * height;
+
+        BlurEngine engine = popupWindow.getBlurEngine();
+        float fitted = fit(engine, scaleRatio, pixels);
+        if (fitted < MIN_SCALE_RATIO) {
+            for (BlurEngine candidate : new BlurEngine[]{RenderScriptBlurEngine.getInstance(mContext), StackBlurEngine.getInstance()}) {
+                float candidateFitted = fit(candidate, scaleRatio, pixels);
+                if (candidateFitted > fitted) {
+                    engine = candidate;
+                    fitted = candidateFitted;
+                }
+            }
+        }
+        scaleRatio = Math.max(MIN_SCALE_RATIO, fitted);
+
+        float radius = popupWindow.getBlurRadius();
+        if (radius > 0) {
+            radius = Math.max(Math.min(radius, 1), radius * scaleRatio / requestedScale);
+        }
+        return new Decision(engine, scaleRatio, Math.min(radius, engine.getMaxRadius()));
+    }
+
+    /**
+     * @return largest scale ratio up to scaleRatio predicted to fit the budget with engine.
+     */
+    private float fit(BlurEngine engine, float scaleRatio, long pixels) {
+        Float cost = mCosts.get(engine.getClass());
+        if (cost == null) {
+            return scaleRatio;
+        }
+        double budget = Math.max(mLatencyBudgetNanos - Math.max(0, mFixedNanos), mLatencyBudgetNanos * MIN_SCALED_SHARE);
+        double predicted = cost * pixels * scaleRatio * scaleRatio;
+        if (predicted <= budget) {
+            return scaleRatio;
+        }
+        return (float) (scaleRatio * Math.sqrt(budget / predicted));
+    }
+
+    @MainThread
+    void record(BlurEngine engine, BlurMetrics metrics) {
+        long pixels = (long) metrics.getBlurredWidth() * metrics.getBlurredHeight();
+        if (pixels == 0) {
+            return;
+        }
+        long rasterizeNanos = metrics.getDurationNanos(BlurMetrics.Stage.RASTERIZE);
+        boolean rasterizeScaled = metrics.getCaptureWidth() == metrics.getBlurredWidth()
+                && metrics.getCaptureHeight() == metrics.getBlurredHeight();
+        long scaledNanos = metrics.getDurationNanos(BlurMetrics.Stage.DOWNSCALE)
+                + metrics.getDurationNanos(BlurMetrics.Stage.BLUR)
+                + (rasterizeScaled ? rasterizeNanos : 0);
+        float sample = scaledNanos / (float) pixels;
+        Float cost = mCosts.get(engine.getClass());
+        mCosts.put(engine.getClass(), cost == null ? sample : cost + SMOOTHING * (sample - cost));
+
+        long fixedNanos = metrics.getDurationNanos(BlurMetrics.Stage.CAPTURE)
+                + metrics.getDurationNanos(BlurMetrics.Stage.CAPTURE_WAIT)
+                + (rasterizeScaled ? 0 : rasterizeNanos)
+                + metrics.getDurationNanos(BlurMetrics.Stage.UPSCALE);
+        mFixedNanos = mFixedNanos < 0 ? fixedNanos : mFixedNanos + SMOOTHING * (fixedNanos - mFixedNanos);
+    }
+
+    /**
+     * Blur settings of one blur.
+     */
+    static final class Decision {
+        final BlurEngine mEngine;
+        final float mScaleRatio;
+        final float mBlurRadius;
+
+        Decision(BlurEngine engine, float scaleRatio, float blurRadius) {
+            mEngine = engine;
+            mScaleRatio = scaleRatio;
+            mBlurRadius = blurRadius;
+        }
+    }
+}
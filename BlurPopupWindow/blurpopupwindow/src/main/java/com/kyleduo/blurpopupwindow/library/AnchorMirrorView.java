@@ -0,0 +1,205 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Picture;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Draws the anchor view of a popup on top of the blurred background, at the anchor's position on
+ * screen.
+ * <p>
+ * The anchor is recorded into a {@link Picture} that a hardware canvas replays on API 23 and
+ * above. Below that, or on a software canvas, it is drawn into a snapshot bitmap that is kept
+ * across shows and only reallocated when the anchor's size changes. Drawing the anchor itself into
+ * the popup window would share its render nodes between two windows.
+ * <p>
+ * Whenever the anchor's window is about to draw, the mirror checks a {@link ContentSignature} of
+ * the anchor's content and records it again only when that changed. The anchor's alpha and
+ * transform are applied by the mirror when drawing, so animating them only invalidates.
+ */
+class AnchorMirrorView extends View implements ViewTreeObserver.OnPreDrawListener {
+    private final int[] mAnchorLocation = new int[2];
+    private final int[] mLocation = new int[2];
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix mAnchorMatrix = new Matrix();
+    private View mAnchorView;
+    private ViewTreeObserver mObserver;
+    private Picture mPicture;
+    private Bitmap mSnapshot;
+    private boolean mRecorded;
+    private long mSignature;
+    private int mAnchorX;
+    private int mAnchorY;
+    private float mAnchorAlpha;
+
+    AnchorMirrorView(Context context) {
+        super(context);
+        setWillNotDraw(false);
+    }
+
+    void setAnchorView(View anchorView) {
+        if (mAnchorView == anchorView) {
+            return;
+        }
+        stopObserving();
+        mAnchorView = anchorView;
+        mRecorded = false;
+        mPicture = null;
+        mSnapshot = null;
+        if (getWindowToken() != null) {
+            startObserving();
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        startObserving();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stopObserving();
+        super.onDetachedFromWindow();
+    }
+
+    private void startObserving() {
+        if (mAnchorView != null) {
+            mObserver = mAnchorView.getViewTreeObserver();
+            mObserver.addOnPreDrawListener(this);
+            refresh();
+        }
+    }
+
+    private void stopObserving() {
+        if (mObserver != null) {
+            if (mObserver.isAlive()) {
+                mObserver.removeOnPreDrawListener(this);
+            }
+            mObserver = null;
+        }
+    }
+
+    @Override
+    public boolean onPreDraw() {
+        refresh();
+        return true;
+    }
+
+    /**
+     * Record the anchor again if its content changed, and invalidate if it or the anchor's
+     * position, alpha or transform did.
+     */
+    private void refresh() {
+        if (mAnchorView == null || mAnchorView.getWindowToken() == null || mAnchorView.getVisibility() != VISIBLE
+                || mAnchorView.getWidth() <= 0 || mAnchorView.getHeight() <= 0) {
+            if (mRecorded) {
+                mRecorded = false;
+                invalidate();
+            }
+            return;
+        }
+        boolean changed = false;
+        long signature = ContentSignature.ofContent(mAnchorView);
+        if (!mRecorded || signature != mSignature) {
+            record();
+            mSignature = signature;
+            mRecorded = true;
+            changed = true;
+        }
+        locateAnchor();
+        if (mAnchorLocation[0] != mAnchorX || mAnchorLocation[1] != mAnchorY) {
+            mAnchorX = mAnchorLocation[0];
+            mAnchorY = mAnchorLocation[1];
+            changed = true;
+        }
+        if (mAnchorView.getAlpha() != mAnchorAlpha) {
+            mAnchorAlpha = mAnchorView.getAlpha();
+            changed = true;
+        }
+        Matrix matrix = mAnchorView.getMatrix();
+        if (!matrix.equals(mAnchorMatrix)) {
+            mAnchorMatrix.set(matrix);
+            changed = true;
+        }
+        if (changed) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Record the anchor into a picture on API 23+, where hardware canvases can draw one. Below
+     * that draw it into the snapshot, reusing it while the anchor's size stays the same.
+     */
+    private void record() {
+        int width = mAnchorView.getWidth();
+        int height = mAnchorView.getHeight();
+        Canvas canvas;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            if (mPicture == null) {
+                mPicture = new Picture();
+            }
+            canvas = mPicture.beginRecording(width, height);
+        } else {
+            if (mSnapshot == null || mSnapshot.getWidth() != width || mSnapshot.getHeight() != height) {
+                mSnapshot = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } else {
+                mSnapshot.eraseColor(Color.TRANSPARENT);
+            }
+            canvas = new Canvas(mSnapshot);
+        }
+        // Parents apply a view's scroll when drawing it, View.draw() does not.
+        canvas.translate(-mAnchorView.getScrollX(), -mAnchorView.getScrollY());
+        mAnchorView.draw(canvas);
+        if (mPicture != null) {
+            mPicture.endRecording();
+        }
+    }
+
+    /**
+     * Find the anchor's untransformed position on screen: its parent's position plus its layout
+     * position. Its own transform is applied when drawing.
+     */
+    private void locateAnchor() {
+        if (mAnchorView.getParent() instanceof View) {
+            View parent = (View) mAnchorView.getParent();
+            parent.getLocationOnScreen(mAnchorLocation);
+            mAnchorLocation[0] += mAnchorView.getLeft() - parent.getScrollX();
+            mAnchorLocation[1] += mAnchorView.getTop() - parent.getScrollY();
+        } else {
+            mAnchorView.getLocationOnScreen(mAnchorLocation);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (!mRecorded) {
+            return;
+        }
+        getLocationOnScreen(mLocation);
+        int saveCount = canvas.save();
+        canvas.translate(mAnchorX - mLocation[0], mAnchorY - mLocation[1]);
+        if (!mAnchorMatrix.isIdentity()) {
+            canvas.concat(mAnchorMatrix);
+        }
+        int alpha = Math.round(mAnchorAlpha * 255);
+        if (mPicture != null) {
+            if (alpha < 255) {
+                canvas.saveLayerAlpha(0, 0, mPicture.getWidth(), mPicture.getHeight(), alpha);
+            }
+            canvas.drawPicture(mPicture);
+        } else {
+            mPaint.setAlpha(alpha);
+            canvas.drawBitmap(mSnapshot, 0, 0, mPaint);
+        }
+        canvas.restoreToCount(saveCount);
+    }
+}
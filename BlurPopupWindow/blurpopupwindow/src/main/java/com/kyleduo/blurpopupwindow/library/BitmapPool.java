@@ -0,0 +1,105 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Bounded pool of bitmaps shared by blur tasks, matched by width, height and config.
+ * <p>
+ * Bitmaps are kept in least-recently-returned order and the oldest ones are recycled when the
+ * total byte count exceeds the budget. The pool only ever holds a handful of bitmaps, so matching
+ * is a linear scan.
+ */
+public class BitmapPool {
+    private static BitmapPool sInstance;
+
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private int mMaxBytes;
+    private int mBytes;
+
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8));
+        }
+        return sInstance;
+    }
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap matching the given size and config out of the pool, or create a new one.
+     * Content of a reused bitmap is undefined.
+     */
+    @NonNull
+    public Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Take a bitmap matching the given size and config out of the pool.
+     *
+     * @return the bitmap, or null if none is pooled.
+     */
+    synchronized Bitmap take(int width, int height, @NonNull Bitmap.Config config) {
+        Iterator<Bitmap> iterator = mBitmaps.descendingIterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                iterator.remove();
+                mBytes -= bitmap.getByteCount();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return a bitmap to the pool. The caller must not use it afterwards.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || mBitmaps.contains(bitmap)) {
+            return;
+        }
+        if (bitmap.getByteCount() > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mBytes += bitmap.getByteCount();
+        trimToSize(mMaxBytes);
+    }
+
+    public synchronized void setMaxBytes(int maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Recycle least recently returned bitmaps until the pool holds at most maxBytes.
+     */
+    public synchronized void trimToSize(int maxBytes) {
+        while (mBytes > maxBytes && !mBitmaps.isEmpty()) {
+            Bitmap bitmap = mBitmaps.removeFirst();
+            mBytes -= bitmap.getByteCount();
+            bitmap.recycle();
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+}
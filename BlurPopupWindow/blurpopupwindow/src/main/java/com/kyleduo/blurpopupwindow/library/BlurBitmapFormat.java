@@ -0,0 +1,41 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+
+/**
+ * Pixel format of the bitmaps a {@link BlurPopupWindow} captures and blurs its background into.
+ * <p>
+ * The background below a popup is opaque, so the alpha channel of {@link #ARGB_8888} carries no
+ * information. {@link #OPAQUE} keeps 32 bit pixels but marks them opaque so they are drawn without
+ * blending. {@link #RGB_565} halves memory and bandwidth at the cost of some banding; it needs a
+ * {@link BlurEngine} that {@link BlurEngine#supports supports} it, like {@link StackBlurEngine},
+ * and falls back to {@link #OPAQUE} otherwise.
+ */
+public enum BlurBitmapFormat {
+    ARGB_8888(Bitmap.Config.ARGB_8888, true),
+    OPAQUE(Bitmap.Config.ARGB_8888, false),
+    RGB_565(Bitmap.Config.RGB_565, false);
+
+    private final Bitmap.Config mConfig;
+    private final boolean mHasAlpha;
+
+    BlurBitmapFormat(Bitmap.Config config, boolean hasAlpha) {
+        mConfig = config;
+        mHasAlpha = hasAlpha;
+    }
+
+    public Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    public boolean hasAlpha() {
+        return mHasAlpha;
+    }
+
+    /**
+     * @return this format, or {@link #OPAQUE} if engine can not blur its config.
+     */
+    BlurBitmapFormat resolve(BlurEngine engine) {
+        return engine.supports(mConfig) ? this : OPAQUE;
+    }
+}
@@ -0,0 +1,205 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.util.LruCache;
+import android.view.View;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Byte bounded LRU cache of blurred backgrounds, so a popup shown again over an unchanged screen
+ * can display its blur on the first frame.
+ * <p>
+ * Entries are keyed by activity, window size, blur parameters, blurred region and a
+ * {@link ContentSignature} of the decor view and of the popup below, if any. Cached bitmaps may
+ * be on screen in several popups, so they are never recycled or pooled, not even once evicted;
+ * evicted ones are left to the garbage collector. The shared instance is trimmed by
+ * {@link BlurResources}. Only used from the main thread.
+ */
+public class BlurCache implements ComponentCallbacks2 {
+    private static BlurCache sInstance;
+
+    private final LruCache<Key, Bitmap> mCache;
+    private final Set<Bitmap> mCachedBitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    // Bitmap keeps identity equality, so this is a weak identity set.
+    private final Set<Bitmap> mSharedBitmaps = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+
+    public static synchronized BlurCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new BlurCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16));
+            BlurResources.getInstance(context).registerBlurCache(sInstance);
+        }
+        return sInstance;
+    }
+
+    public BlurCache(int maxBytes) {
+        mCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue, Bitmap newValue) {
+                // A bitmap is only ever cached under one key, but a put under an equal key keeps
+                // the original key object, so the key can not tell whose entry this was.
+                if (oldValue != newValue) {
+                    mCachedBitmaps.remove(oldValue);
+                }
+            }
+        };
+    }
+
+    @MainThread
+    Bitmap get(Key key) {
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null && bitmap.isRecycled()) {
+            mCache.remove(key);
+            return null;
+        }
+        return bitmap;
+    }
+
+    @MainThread
+    void put(Key key, Bitmap bitmap) {
+        mCachedBitmaps.add(bitmap);
+        mSharedBitmaps.add(bitmap);
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * @return whether bitmap is held by the cache now.
+     */
+    @MainThread
+    boolean contains(Bitmap bitmap) {
+        return mCachedBitmaps.contains(bitmap);
+    }
+
+    /**
+     * @return whether bitmap was ever cached. Popups that got it from the cache may still draw it
+     * after eviction, so it must never be recycled or pooled.
+     */
+    @MainThread
+    boolean isShared(Bitmap bitmap) {
+        return mSharedBitmaps.contains(bitmap);
+    }
+
+    public int getBytes() {
+        return mCache.size();
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    /**
+     * Identity of a blurred background. The activity is compared by identity and not retained.
+     */
+    static final class Key {
+        private final WeakReference<Activity> mActivity;
+        private final int mActivityHash;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mTrimTop;
+        private final int mTrimBottom;
+        private final float mRadius;
+        private final float mScaleRatio;
+        private final Class<?> mEngineClass;
+        private final boolean mUpscaleOnDraw;
+        private final BlurBitmapFormat mFormat;
+        private final Rect mRegion;
+        private final long mParentSignature;
+        private final long mSignature;
+
+        @MainThread
+        Key(Activity activity, BlurPopupWindow popupWindow, View decorView, int trimTop, int trimBottom, Rect region, BlurPopupWindow parent) {
+            mActivity = new WeakReference<>(activity);
+            mActivityHash = System.identityHashCode(activity);
+            mWidth = decorView.getWidth();
+            mHeight = decorView.getHeight();
+            mTrimTop = trimTop;
+            mTrimBottom = trimBottom;
+            mRadius = popupWindow.getBlurRadius();
+            mScaleRatio = popupWindow.getScaleRatio();
+            mEngineClass = popupWindow.getBlurEngine().getClass();
+            mUpscaleOnDraw = popupWindow.isUpscaleOnDraw();
+            mFormat = popupWindow.getBitmapFormat().resolve(popupWindow.getBlurEngine());
+            mRegion = region == null ? null : new Rect(region);
+            mParentSignature = parent == null ? 0 : 31L * System.identityHashCode(parent) + ContentSignature.of(parent);
+            mSignature = ContentSignature.of(decorView);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mActivityHash == key.mActivityHash
+                    && mWidth == key.mWidth
+                    && mHeight == key.mHeight
+                    && mTrimTop == key.mTrimTop
+                    && mTrimBottom == key.mTrimBottom
+                    && Float.compare(mRadius, key.mRadius) == 0
+                    && Float.compare(mScaleRatio, key.mScaleRatio) == 0
+                    && mEngineClass == key.mEngineClass
+                    && mUpscaleOnDraw == key.mUpscaleOnDraw
+                    && mFormat == key.mFormat
+                    && (mRegion == null ? key.mRegion == null : mRegion.equals(key.mRegion))
+                    && mSignature == key.mSignature
+                    && mParentSignature == key.mParentSignature
+                    && mActivity.get() != null
+                    && mActivity.get() == key.mActivity.get();
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mActivityHash;
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + mTrimTop;
+            result = 31 * result + mTrimBottom;
+            result = 31 * result + Float.floatToIntBits(mRadius);
+            result = 31 * result + Float.floatToIntBits(mScaleRatio);
+            result = 31 * result + mEngineClass.hashCode();
+            result = 31 * result + (mUpscaleOnDraw ? 1 : 0);
+            result = 31 * result + mFormat.hashCode();
+            result = 31 * result + (mRegion != null ? mRegion.hashCode() : 0);
+            result = 31 * result + (int) (mSignature ^ (mSignature >>> 32));
+            result = 31 * result + (int) (mParentSignature ^ (mParentSignature >>> 32));
+            return result;
+        }
+    }
+}
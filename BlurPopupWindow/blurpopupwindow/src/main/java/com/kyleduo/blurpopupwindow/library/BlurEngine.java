@@ -0,0 +1,36 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+/**
+ * Algorithm used by {@link BlurPopupWindow} to blur the captured background.
+ * <p>
+ * Implementations are shared between popups and may be called from any worker thread, so they
+ * must be thread safe.
+ */
+public interface BlurEngine {
+
+    /**
+     * Blur input into output. Both bitmaps have the same size and config, a config this engine
+     * {@link #supports}, and are never the same bitmap.
+     */
+    @WorkerThread
+    void blur(@NonNull Bitmap input, @NonNull Bitmap output, float radius);
+
+    /**
+     * @return whether {@link #blur} accepts bitmaps of config.
+     */
+    boolean supports(@NonNull Bitmap.Config config);
+
+    /**
+     * @return largest radius this engine accepts.
+     */
+    float getMaxRadius();
+
+    /**
+     * Release resources held between blurs. The engine must stay usable afterwards.
+     */
+    void destroy();
+}
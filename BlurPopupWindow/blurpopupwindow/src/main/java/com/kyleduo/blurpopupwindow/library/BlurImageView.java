@@ -0,0 +1,176 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.Property;
+import android.widget.ImageView;
+
+/**
+ * ImageView showing the blurred background, with the tint color drawn over it at render time.
+ * <p>
+ * Keeping the tint out of the blurred bitmap means it costs nothing on the capture path and can
+ * be changed or animated without blurring again. When a blur region is set the image only covers
+ * that region and the tint alone is drawn around it. While a blur is pending nothing is drawn,
+ * so the tint appears together with the blurred image instead of ahead of it.
+ * <p>
+ * With blur levels set, {@link #setBlurProgress(float) blur progress} crossfades from the sharp
+ * level through the blurrier ones to the image, so showing the popup looks like a focus pull
+ * instead of a dissolve. The tint fades in with the progress.
+ */
+class BlurImageView extends ImageView {
+    static final Property<BlurImageView, Float> BLUR_PROGRESS = new Property<BlurImageView, Float>(Float.class, "blurProgress") {
+        @Override
+        public Float get(BlurImageView view) {
+            return view.getBlurProgress();
+        }
+
+        @Override
+        public void set(BlurImageView view, Float value) {
+            view.setBlurProgress(value);
+        }
+    };
+
+    private final Paint mLevelPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mLevelBounds = new Rect();
+    private int mTintColor;
+    private Rect mBlurRegion;
+    private Bitmap[] mBlurLevels;
+    private float mBlurProgress = 1f;
+    private boolean mBlurPending;
+
+    BlurImageView(Context context) {
+        super(context);
+    }
+
+    int getTintColor() {
+        return mTintColor;
+    }
+
+    void setTintColor(int tintColor) {
+        if (mTintColor == tintColor) {
+            return;
+        }
+        mTintColor = tintColor;
+        invalidate();
+    }
+
+    Rect getBlurRegion() {
+        return mBlurRegion;
+    }
+
+    /**
+     * @param blurRegion bounds the image is drawn into, in this view's coordinates, or null to
+     *                   fill the view.
+     */
+    void setBlurRegion(Rect blurRegion) {
+        mBlurRegion = blurRegion;
+        invalidate();
+    }
+
+    Bitmap[] getBlurLevels() {
+        return mBlurLevels;
+    }
+
+    /**
+     * @param blurLevels less blurred versions of the image, from the sharpest, or null to only
+     *                   draw the image.
+     */
+    void setBlurLevels(Bitmap[] blurLevels) {
+        mBlurLevels = blurLevels;
+        invalidate();
+    }
+
+    boolean isBlurPending() {
+        return mBlurPending;
+    }
+
+    /**
+     * @param blurPending true to draw nothing until an image is set.
+     */
+    void setBlurPending(boolean blurPending) {
+        if (mBlurPending == blurPending) {
+            return;
+        }
+        mBlurPending = blurPending;
+        invalidate();
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        if (drawable != null) {
+            mBlurPending = false;
+        }
+        super.setImageDrawable(drawable);
+    }
+
+    float getBlurProgress() {
+        return mBlurProgress;
+    }
+
+    /**
+     * @param blurProgress 0 to draw the sharpest blur level, 1 to draw the image. Only used when
+     *                     blur levels are set.
+     */
+    void setBlurProgress(float blurProgress) {
+        mBlurProgress = Math.max(0, Math.min(1, blurProgress));
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mBlurPending) {
+            return;
+        }
+        Drawable drawable = getDrawable();
+        if (mBlurLevels != null && mBlurProgress < 1) {
+            drawBlurLevels(canvas, drawable);
+        } else if (mBlurRegion == null) {
+            super.onDraw(canvas);
+        } else if (drawable != null) {
+            drawable.setBounds(mBlurRegion);
+            drawable.draw(canvas);
+        }
+        if (mTintColor != 0) {
+            if (mBlurLevels == null) {
+                canvas.drawColor(mTintColor);
+            } else {
+                int alpha = Math.round(Color.alpha(mTintColor) * mBlurProgress);
+                canvas.drawColor((alpha << 24) | (mTintColor & 0xFFFFFF));
+            }
+        }
+    }
+
+    /**
+     * Draw the two levels around the progress, the blurrier one faded in over the other. The
+     * image counts as the last level.
+     */
+    private void drawBlurLevels(Canvas canvas, Drawable drawable) {
+        if (mBlurRegion != null) {
+            mLevelBounds.set(mBlurRegion);
+        } else {
+            mLevelBounds.set(0, 0, getWidth(), getHeight());
+        }
+        float position = mBlurProgress * mBlurLevels.length;
+        int lower = (int) position;
+        mLevelPaint.setAlpha(255);
+        canvas.drawBitmap(mBlurLevels[lower], null, mLevelBounds, mLevelPaint);
+        int alpha = Math.round((position - lower) * 255);
+        if (alpha == 0) {
+            return;
+        }
+        if (lower + 1 < mBlurLevels.length) {
+            mLevelPaint.setAlpha(alpha);
+            canvas.drawBitmap(mBlurLevels[lower + 1], null, mLevelBounds, mLevelPaint);
+        } else if (drawable != null) {
+            drawable.setBounds(mLevelBounds);
+            drawable.setAlpha(alpha);
+            drawable.draw(canvas);
+            drawable.setAlpha(255);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.v4.os.TraceCompat;
+
+/**
+ * Timings and allocations of one blur of a {@link BlurPopupWindow} background, reported to a
+ * {@link Listener} once the blurred bitmap reached the main thread.
+ * <p>
+ * A popup blurs once per show, or once per frame in live blur mode; cancelled blurs and
+ * backgrounds taken from {@link BlurCache} or {@link BlurPopupWindow#prepare()} are not reported.
+ * Stages that run code are also wrapped in systrace sections named after {@link Stage}.
+ */
+public final class BlurMetrics {
+    private static Listener sDefaultListener;
+
+    /**
+     * Stages of a blur, in order. Stages skipped by the configuration take no time and report no
+     * thread.
+     */
+    public enum Stage {
+        /**
+         * Capturing the activity on the main thread: the whole capture for
+         * {@link SoftwareCaptureBackend}, recording it for {@link PictureCaptureBackend}, issuing
+         * it for asynchronous backends.
+         */
+        CAPTURE("BlurPopupWindow:capture"),
+        /**
+         * Waiting for an asynchronous capture to finish.
+         */
+        CAPTURE_WAIT(null),
+        /**
+         * Waiting in the {@link BlurScheduler} for a worker.
+         */
+        QUEUE(null),
+        /**
+         * Work a backend left for the blur worker, like playing back a recorded capture.
+         */
+        RASTERIZE("BlurPopupWindow:rasterize"),
+        /**
+         * Shrinking the capture, when not captured at the scaled size already.
+         */
+        DOWNSCALE("BlurPopupWindow:downscale"),
+        /**
+         * {@link BlurEngine#blur}.
+         */
+        BLUR("BlurPopupWindow:blur"),
+        /**
+         * Scaling the blurred bitmap back to full size, when not upscaled on draw.
+         */
+        UPSCALE("BlurPopupWindow:upscale"),
+        /**
+         * Waiting for the main thread to deliver the result.
+         */
+        DELIVER(null);
+
+        private final String mSectionName;
+
+        Stage(String sectionName) {
+            mSectionName = sectionName;
+        }
+    }
+
+    public interface Listener {
+        @MainThread
+        void onBlurMetrics(@NonNull BlurPopupWindow popupWindow, @NonNull BlurMetrics metrics);
+    }
+
+    private final long[] mDurations = new long[Stage.values().length];
+    private final String[] mThreadNames = new String[Stage.values().length];
+    private final String mBlurEngineName;
+    private final BlurBitmapFormat mBitmapFormat;
+    private final float mBlurRadius;
+    private final float mScaleRatio;
+    private long mStageStart;
+    private long mLastEnd;
+    private long mAllocatedBytes;
+    private int mCaptureWidth;
+    private int mCaptureHeight;
+    private int mBlurredWidth;
+    private int mBlurredHeight;
+    private int mResultWidth;
+    private int mResultHeight;
+
+    public static synchronized Listener getDefaultListener() {
+        return sDefaultListener;
+    }
+
+    /**
+     * Set a listener receiving the metrics of every popup, in addition to the popup's own
+     * {@link BlurPopupWindow#setMetricsListener listener}.
+     */
+    public static synchronized void setDefaultListener(Listener listener) {
+        sDefaultListener = listener;
+    }
+
+    BlurMetrics(BlurEngine engine, BlurBitmapFormat bitmapFormat, float blurRadius, float scaleRatio) {
+        mBlurEngineName = engine.getClass().getSimpleName();
+        mBitmapFormat = bitmapFormat;
+        mBlurRadius = blurRadius;
+        mScaleRatio = scaleRatio;
+    }
+
+    void begin(Stage stage) {
+        TraceCompat.beginSection(stage.mSectionName);
+        mThreadNames[stage.ordinal()] = Thread.currentThread().getName();
+        mStageStart = System.nanoTime();
+    }
+
+    void end(Stage stage) {
+        mLastEnd = System.nanoTime();
+        mDurations[stage.ordinal()] = mLastEnd - mStageStart;
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Record the time since the last stage ended as stage, a hand-over to the current thread.
+     */
+    void waited(Stage stage) {
+        long now = System.nanoTime();
+        mThreadNames[stage.ordinal()] = Thread.currentThread().getName();
+        mDurations[stage.ordinal()] = now - mLastEnd;
+        mLastEnd = now;
+    }
+
+    /**
+     * Record the time from the last stage's end to time as stage, ended on thread threadName.
+     * Nothing is recorded if time is not later.
+     */
+    void waitedUntil(Stage stage, long time, String threadName) {
+        if (time <= mLastEnd) {
+            return;
+        }
+        mThreadNames[stage.ordinal()] = threadName;
+        mDurations[stage.ordinal()] = time - mLastEnd;
+        mLastEnd = time;
+    }
+
+    void allocated(long bytes) {
+        mAllocatedBytes += bytes;
+    }
+
+    void setCaptureSize(int width, int height) {
+        mCaptureWidth = width;
+        mCaptureHeight = height;
+    }
+
+    void setBlurredSize(int width, int height) {
+        mBlurredWidth = width;
+        mBlurredHeight = height;
+    }
+
+    void setResultSize(int width, int height) {
+        mResultWidth = width;
+        mResultHeight = height;
+    }
+
+    public long getDurationNanos(@NonNull Stage stage) {
+        return mDurations[stage.ordinal()];
+    }
+
+    /**
+     * @return name of the thread stage ran or ended on, null if it was skipped.
+     */
+    public String getThreadName(@NonNull Stage stage) {
+        return mThreadNames[stage.ordinal()];
+    }
+
+    /**
+     * @return time from the start of the capture to the delivery of the result.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long duration : mDurations) {
+            total += duration;
+        }
+        return total;
+    }
+
+    /**
+     * @return bytes of bitmaps newly allocated for this blur, not counting those reused from
+     * {@link BitmapPool} nor memory held inside the engine.
+     */
+    public long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    public int getCaptureWidth() {
+        return mCaptureWidth;
+    }
+
+    public int getCaptureHeight() {
+        return mCaptureHeight;
+    }
+
+    public int getBlurredWidth() {
+        return mBlurredWidth;
+    }
+
+    public int getBlurredHeight() {
+        return mBlurredHeight;
+    }
+
+    /**
+     * @return width of the bitmap handed to the popup, the blurred width when upscaled on draw.
+     */
+    public int getResultWidth() {
+        return mResultWidth;
+    }
+
+    public int getResultHeight() {
+        return mResultHeight;
+    }
+
+    public String getBlurEngineName() {
+        return mBlurEngineName;
+    }
+
+    public BlurBitmapFormat getBitmapFormat() {
+        return mBitmapFormat;
+    }
+
+    public float getBlurRadius() {
+        return mBlurRadius;
+    }
+
+    public float getScaleRatio() {
+        return mScaleRatio;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("BlurMetrics{");
+        for (Stage stage : Stage.values()) {
+            builder.append(stage.name().toLowerCase()).append('=')
+                    .append(mDurations[stage.ordinal()] / 1000).append("us ");
+        }
+        return builder.append("allocated=").append(mAllocatedBytes)
+                .append(" capture=").append(mCaptureWidth).append('x').append(mCaptureHeight)
+                .append(" blurred=").append(mBlurredWidth).append('x').append(mBlurredHeight)
+                .append(" result=").append(mResultWidth).append('x').append(mResultHeight)
+                .append(" engine=").append(mBlurEngineName)
+                .append(" format=").append(mBitmapFormat)
+                .append(" radius=").append(mBlurRadius)
+                .append(" scaleRatio=").append(mScaleRatio)
+                .append('}').toString();
+    }
+}
@@ -7,28 +7,35 @@ import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Picture;
 import android.graphics.PixelFormat;
-import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
+import android.graphics.Rect;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.AnyThread;
 import android.support.annotation.CallSuper;
+import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
-import android.util.DisplayMetrics;
 import android.util.Log;
-import android.view.Display;
 import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.view.Window;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 
 import java.lang.ref.WeakReference;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * PopupWindow with blurred below view.
@@ -42,6 +49,8 @@ public class BlurPopupWindow extends FrameLayout {
     private static final float DEFAULT_BLUR_RADIUS = 10;
     private static final float DEFAULT_SCALE_RATIO = 0.4f;
     private static final long DEFAULT_ANIMATION_DURATION = 300;
+    private static final long DEFAULT_LIVE_BLUR_INTERVAL = 50;
+    private static final int MAX_BLUR_IN_LEVELS = 4;
 
     public interface OnDismissListener {
         void onDismiss(BlurPopupWindow popupWindow);
@@ -50,19 +59,54 @@ public class BlurPopupWindow extends FrameLayout {
     private Activity mActivity;
     protected ImageView mBlurView;
     protected FrameLayout mContentLayout;
+    private AnchorMirrorView mAnchorMirror;
     private boolean mAnimating;
 
     private WindowManager mWindowManager;
+    private WindowManager.LayoutParams mWindowParams;
+    private int mAppliedBottomPadding;
+    private int mAppliedBottomMargin;
+    private Bitmap mBlurredBitmap;
+    private Bitmap mRetiredBitmap;
+    private Bitmap[] mBlurLevels;
+    private int mTrimTopHeight;
+    private int mTrimBottomHeight;
+    private int mNavigationBarHeight;
+    private boolean mShowing;
+    private BlurCache.Key mPreparedKey;
+    private Bitmap mPreparedBitmap;
+    private Bitmap[] mPreparedLevels;
+    private boolean mBlurInFlight;
+    private BlurCache.Key mCacheKey;
+    private Rect mBlurRegion;
+    private BlurPopupWindow mStackParent;
+    private int mPinCount;
+    private final List<Bitmap> mPinnedReleases = new ArrayList<>();
+    private LiveBlurObserver mLiveBlurObserver;
 
     private View mContentView;
     private int mTintColor;
     private View mAnchorView;
     private float mBlurRadius;
     private float mScaleRatio;
+    private BlurEngine mBlurEngine;
+    private BlurScheduler mBlurScheduler;
+    private CaptureBackend mCaptureBackend;
+    private boolean mDownscaleOnCapture;
+    private boolean mUpscaleOnDraw;
+    private BlurBitmapFormat mBitmapFormat;
+    private boolean mLiveBlur;
+    private long mLiveBlurInterval;
+    private boolean mBlurCacheEnabled;
+    private boolean mAdaptiveQuality;
+    private boolean mBlurBehindContentOnly;
+    private int mBlurInLevels;
     private long mAnimationDuration;
     private boolean mDismissOnTouchBackground;
     private boolean mDismissOnClickBack;
+    private boolean mReusable;
     private OnDismissListener mOnDismissListener;
+    private BlurMetrics.Listener mMetricsListener;
 
     public BlurPopupWindow(@NonNull Context context) {
         super(context);
@@ -75,9 +119,14 @@ public class BlurPopupWindow extends FrameLayout {
         }
         mActivity = (Activity) getContext();
         mWindowManager = mActivity.getWindowManager();
+        BlurResources.getInstance(mActivity).registerPopupWindow(this);
 
         mBlurRadius = DEFAULT_BLUR_RADIUS;
         mScaleRatio = DEFAULT_SCALE_RATIO;
+        mDownscaleOnCapture = true;
+        mUpscaleOnDraw = true;
+        mBitmapFormat = BlurBitmapFormat.ARGB_8888;
+        mLiveBlurInterval = DEFAULT_LIVE_BLUR_INTERVAL;
         mAnimationDuration = DEFAULT_ANIMATION_DURATION;
 
         setFocusable(true);
@@ -87,13 +136,16 @@ public class BlurPopupWindow extends FrameLayout {
         LayoutParams lp = new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
         addView(mContentLayout, lp);
 
-        mBlurView = new ImageView(mActivity);
+        mBlurView = new BlurImageView(mActivity);
         mBlurView.setScaleType(ImageView.ScaleType.FIT_XY);
         lp = new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
         lp.gravity = Gravity.BOTTOM;
         mBlurView.setLayoutParams(lp);
         mContentLayout.addView(mBlurView);
 
+        mAnchorMirror = new AnchorMirrorView(mActivity);
+        mContentLayout.addView(mAnchorMirror, new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+
         mContentView = createContentView(mContentLayout);
         if (mContentView != null) {
             mContentLayout.addView(mContentView);
@@ -141,6 +193,8 @@ public class BlurPopupWindow extends FrameLayout {
             if (mContentView.getParent() != null) {
                 ((ViewGroup) mContentView.getParent()).removeView(mContentView);
             }
+            ((MarginLayoutParams) mContentView.getLayoutParams()).bottomMargin -= mAppliedBottomMargin;
+            mAppliedBottomMargin = 0;
             mContentView = null;
         }
         mContentView = contentView;
@@ -151,44 +205,166 @@ public class BlurPopupWindow extends FrameLayout {
         return mContentView;
     }
 
+    public boolean isShowing() {
+        return mShowing;
+    }
+
+    /**
+     * Show the popup. A dismissed popup can be shown again; window params and system bar sizes
+     * are kept between shows and only measured again when the configuration changed.
+     */
     public void show() {
-        if (mAnimating) {
+        if (mAnimating || mShowing) {
             return;
         }
 
-        WindowManager.LayoutParams params = new WindowManager.LayoutParams();
-        params.width = WindowManager.LayoutParams.MATCH_PARENT;
-        params.height = WindowManager.LayoutParams.MATCH_PARENT;
-        params.format = PixelFormat.RGBA_8888;
-
-        int statusBarHeight = 0;
-        int navigationBarHeight = BlurPopupWindow.getNaviHeight(mActivity);
-        int resourceId = getResources().getIdentifier("status_bar_height", "dimen", "android");
-        if (resourceId > 0) {
-            statusBarHeight = getResources().getDimensionPixelSize(resourceId);
+        if (mWindowParams == null) {
+            mWindowParams = new WindowManager.LayoutParams();
+            mWindowParams.width = WindowManager.LayoutParams.MATCH_PARENT;
+            mWindowParams.height = WindowManager.LayoutParams.MATCH_PARENT;
+            mWindowParams.format = PixelFormat.RGBA_8888;
         }
+        WindowManager.LayoutParams params = mWindowParams;
 
-        int trimTopHeight = statusBarHeight;
-        int trimBottomHeight = 0;
+        measureTrims();
+        int trimTopHeight = mTrimTopHeight;
+        int trimBottomHeight = mTrimBottomHeight;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // This line will cause decor view fill all the screen, even if FLAG_TRANSLUCENT_NAVIGATION
+            // was not set.
+            params.flags = mActivity.getWindow().getAttributes().flags;
+        }
+        updateBottomInsets();
+        // A dismissed popup is left faded out.
+        mBlurView.setAlpha(1f);
+
+        mShowing = true;
+        mStackParent = PopupStack.top(mActivity);
+        PopupStack.push(mActivity, this);
+        boolean blur = mBlurRadius > 0;
+        mBlurRegion = blur ? computeBlurRegion() : null;
+        BlurCache.Key key = null;
+        if (blur && ((mBlurCacheEnabled && !mLiveBlur) || mPreparedKey != null)) {
+            key = new BlurCache.Key(mActivity, this, mActivity.getWindow().getDecorView(), trimTopHeight, trimBottomHeight, mBlurRegion, mStackParent);
+        }
+        mCacheKey = blur && mBlurCacheEnabled && !mLiveBlur ? key : null;
+        Bitmap cached = mCacheKey != null ? BlurCache.getInstance(mActivity).get(mCacheKey) : null;
+        boolean usePrepared = cached == null && mPreparedKey != null && mPreparedKey.equals(key);
+        mPreparedKey = null;
+        if (usePrepared) {
+            // Either the prepared blur is ready, or it is still running and will be delivered to
+            // the showing window.
+            cached = mPreparedBitmap;
+            mPreparedBitmap = null;
+            mBlurLevels = mPreparedLevels;
+            mPreparedLevels = null;
+            if (cached != null && mCacheKey != null) {
+                BlurCache.getInstance(mActivity).put(mCacheKey, cached);
+                mCacheKey = null;
+            }
+        } else {
+            getBlurScheduler().cancel(this);
+            mBlurInFlight = false;
+            recycleBitmap(mPreparedBitmap);
+            mPreparedBitmap = null;
+            recycleLevels(mPreparedLevels);
+            mPreparedLevels = null;
+            if (cached == null && blur) {
+                startBlur();
+            }
+        }
+        if (mLiveBlur && blur) {
+            mLiveBlurObserver = new LiveBlurObserver(mActivity.getWindow().getDecorView());
+        }
 
-            // No need to trim status bar height in SDK > 21.
-            trimTopHeight = 0;
+        mWindowManager.addView(this, params);
 
-            WindowManager.LayoutParams lp = mActivity.getWindow().getAttributes();
-            if ((lp.flags & WindowManager.LayoutParams.FLAG_TRANSLUCENT_NAVIGATION) == 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                trimBottomHeight = navigationBarHeight;
-            }
+        ObjectAnimator showAnimator = createShowAnimator();
+        if (showAnimator != null) {
+            mAnimating = true;
+            showAnimator.addListener(new AnimatorListenerAdapter() {
+                @Override
+                public void onAnimationCancel(Animator animation) {
+                    mAnimating = false;
+                    requestFocus();
+                }
 
-            // This line will cause decor view fill all the screen, even if FLAG_TRANSLUCENT_NAVIGATION
-            // was not set.
-            params.flags = lp.flags;
+                @Override
+                public void onAnimationEnd(Animator animation) {
+                    mAnimating = false;
+                    requestFocus();
+                }
+            });
+            showAnimator.start();
+        }
+        if (mBlurView instanceof BlurImageView) {
+            BlurImageView blurImageView = (BlurImageView) mBlurView;
+            blurImageView.setBlurRegion(mBlurRegion);
+            // The tint is drawn with the blurred image, not before it and again as it fades in.
+            blurImageView.setBlurPending(blur && cached == null);
+        }
+        if (cached != null) {
+            mBlurredBitmap = cached;
+            onBlurredImageGot(cached);
+        } else if (!blur && !mAnimating) {
+            // Nothing to blur, mBlurView only draws the tint.
+            ObjectAnimator.ofFloat(mBlurView, "alpha", 0, 1f).setDuration(getAnimationDuration()).start();
+        }
+        onShow();
+    }
+
+    /**
+     * Capture and blur the background ahead of {@link #show()}, e.g. on touch down, so the blur is
+     * ready when the popup appears. show() uses the result only if the screen and the blur
+     * parameters did not change in between.
+     */
+    public void prepare() {
+        if (mShowing) {
+            return;
+        }
+        cancelPrepare();
+        if (mBlurRadius == 0) {
+            return;
+        }
+        measureTrims();
+        updateBottomInsets();
+        mBlurRegion = computeBlurRegion();
+        mStackParent = PopupStack.top(mActivity);
+        mPreparedKey = new BlurCache.Key(mActivity, this, mActivity.getWindow().getDecorView(), mTrimTopHeight, mTrimBottomHeight, mBlurRegion, mStackParent);
+        startBlur();
+    }
+
+    /**
+     * Drop the result of {@link #prepare()} when the popup will not be shown after all.
+     */
+    public void cancelPrepare() {
+        if (mShowing) {
+            return;
+        }
+        mPreparedKey = null;
+        getBlurScheduler().cancel(this);
+        mBlurInFlight = false;
+        recycleBitmap(mPreparedBitmap);
+        mPreparedBitmap = null;
+        recycleLevels(mPreparedLevels);
+        mPreparedLevels = null;
+    }
 
-            if (trimBottomHeight > 0) {
+    /**
+     * Work out the bottom padding and content margin keeping clear of the navigation bar, the same
+     * way for {@link #prepare()} and {@link #show()} so both blur the same region.
+     */
+    private void updateBottomInsets() {
+        int navigationBarHeight = mNavigationBarHeight;
+        int bottomPadding = 0;
+        int bottomMargin = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            WindowManager.LayoutParams lp = mActivity.getWindow().getAttributes();
+            if (mTrimBottomHeight > 0) {
 
                 // If trimBottomHeight > 0, it means that we cut navigation bar off and we need shrink
                 // popup windows' content height by increase bottom padding.
-                setPadding(getPaddingLeft(), getPaddingTop(), getPaddingRight(), getPaddingBottom() + navigationBarHeight);
+                bottomPadding = navigationBarHeight;
             } else {
 
                 // If navigation is showing on the screen, whether translucent or not, we should move contentView
@@ -201,42 +377,90 @@ public class BlurPopupWindow extends FrameLayout {
                     moveContent = true;
                 }
                 if (navigationBarHeight > 0 && moveContent) {
-                    if (mContentView != null) {
-                        MarginLayoutParams layoutParams = (MarginLayoutParams) mContentView.getLayoutParams();
-                        layoutParams.bottomMargin += navigationBarHeight;
-                    }
+                    bottomMargin = navigationBarHeight;
                 }
             }
         }
+        applyBottomInsets(bottomPadding, bottomMargin);
+    }
 
-        new BlurTask(mActivity.getWindow().getDecorView(), trimTopHeight, trimBottomHeight, this, new BlurTask.BlurTaskCallback() {
-            @Override
-            public void onBlurFinish(Bitmap bitmap) {
-                onBlurredImageGot(bitmap);
-            }
-        }).execute();
+    /**
+     * Set the bottom padding and content margin keeping clear of the navigation bar, replacing
+     * those of the previous show instead of adding up.
+     */
+    private void applyBottomInsets(int bottomPadding, int bottomMargin) {
+        if (bottomPadding != mAppliedBottomPadding) {
+            setPadding(getPaddingLeft(), getPaddingTop(), getPaddingRight(), getPaddingBottom() - mAppliedBottomPadding + bottomPadding);
+            mAppliedBottomPadding = bottomPadding;
+        }
+        if (mContentView != null && bottomMargin != mAppliedBottomMargin) {
+            MarginLayoutParams layoutParams = (MarginLayoutParams) mContentView.getLayoutParams();
+            layoutParams.bottomMargin += bottomMargin - mAppliedBottomMargin;
+            mContentView.setLayoutParams(layoutParams);
+            mAppliedBottomMargin = bottomMargin;
+        }
+    }
 
-        mWindowManager.addView(this, params);
+    /**
+     * Work out how much of the decor view is covered by system bars and so left out of the blur.
+     */
+    private void measureTrims() {
+        SystemBarHeights systemBarHeights = SystemBarHeights.get(mActivity);
+        mNavigationBarHeight = systemBarHeights.mNavigationBarHeight;
 
-        ObjectAnimator showAnimator = createShowAnimator();
-        if (showAnimator != null) {
-            mAnimating = true;
-            showAnimator.addListener(new AnimatorListenerAdapter() {
-                @Override
-                public void onAnimationCancel(Animator animation) {
-                    mAnimating = false;
-                    requestFocus();
-                }
+        mTrimTopHeight = systemBarHeights.mStatusBarHeight;
+        mTrimBottomHeight = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
 
-                @Override
-                public void onAnimationEnd(Animator animation) {
-                    mAnimating = false;
-                    requestFocus();
-                }
-            });
-            showAnimator.start();
+            // No need to trim status bar height in SDK > 21.
+            mTrimTopHeight = 0;
+
+            WindowManager.LayoutParams lp = mActivity.getWindow().getAttributes();
+            if ((lp.flags & WindowManager.LayoutParams.FLAG_TRANSLUCENT_NAVIGATION) == 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                mTrimBottomHeight = mNavigationBarHeight;
+            }
         }
-        onShow();
+    }
+
+    /**
+     * In blur behind content only mode, find the part of the blurred area covered by the content
+     * view, grown by the reach of the blur kernel so the blur is right up to the content's edges.
+     * The popup is laid out here if it has not been yet, at the size of the blurred area.
+     *
+     * @return the region in {@link #mBlurView} coordinates, or null to blur the whole area.
+     */
+    private Rect computeBlurRegion() {
+        if (!mBlurBehindContentOnly || mContentView == null) {
+            return null;
+        }
+        View decorView = mActivity.getWindow().getDecorView();
+        int width = decorView.getWidth();
+        int height = decorView.getHeight() - mTrimTopHeight - mTrimBottomHeight;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (mContentLayout.getWidth() != width || mContentLayout.getHeight() != height || mContentLayout.isLayoutRequested()) {
+            mContentLayout.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+            mContentLayout.layout(0, 0, width, height);
+        }
+        Rect region = new Rect(mContentView.getLeft(), mContentView.getTop(), mContentView.getRight(), mContentView.getBottom());
+        int margin = (int) Math.ceil(mBlurRadius / mScaleRatio);
+        region.inset(-margin, -margin);
+        if (!region.intersect(0, 0, width, height) || region.isEmpty()) {
+            return null;
+        }
+        if (region.width() == width && region.height() == height) {
+            return null;
+        }
+        return region;
+    }
+
+    /**
+     * @return whether this popup's blurred background hides everything below it, so a popup shown
+     * over it does not need to capture the activity.
+     */
+    private boolean coversBlurArea() {
+        return mBlurredBitmap != null && mBlurRegion == null && mBlurView.getVisibility() == VISIBLE && mBlurView.getAlpha() == 1f;
     }
 
     public void dismiss() {
@@ -244,12 +468,27 @@ public class BlurPopupWindow extends FrameLayout {
             return;
         }
         onDismiss();
+        mShowing = false;
+        PopupStack.remove(mActivity, this);
+        mStackParent = null;
+        if (mLiveBlurObserver != null) {
+            mLiveBlurObserver.stop();
+            mLiveBlurObserver = null;
+        }
+        getBlurScheduler().cancel(this);
+        mBlurInFlight = false;
         ObjectAnimator animator = createDismissAnimator();
         if (animator == null) {
             mWindowManager.removeView(this);
+            onRemoved();
         } else {
             mAnimating = true;
-            ObjectAnimator.ofFloat(mBlurView, "alpha", mBlurView.getAlpha(), 0).setDuration(getAnimationDuration()).start();
+            if (mBlurLevels != null && mBlurView instanceof BlurImageView) {
+                BlurImageView blurImageView = (BlurImageView) mBlurView;
+                ObjectAnimator.ofFloat(blurImageView, BlurImageView.BLUR_PROGRESS, blurImageView.getBlurProgress(), 0).setDuration(getAnimationDuration()).start();
+            } else {
+                ObjectAnimator.ofFloat(mBlurView, "alpha", mBlurView.getAlpha(), 0).setDuration(getAnimationDuration()).start();
+            }
             animator.addListener(new AnimatorListenerAdapter() {
                 @Override
                 public void onAnimationEnd(Animator animation) {
@@ -269,19 +508,231 @@ public class BlurPopupWindow extends FrameLayout {
                     } finally {
                         mAnimating = false;
                     }
+                    onRemoved();
                 }
             });
             animator.start();
         }
     }
 
+    /**
+     * The window is gone: give the blurred bitmaps back and, if reusable, the popup to the pool.
+     */
+    private void onRemoved() {
+        releaseBlurredImage();
+        if (mReusable) {
+            PopupPool.release(this);
+        }
+    }
+
+    private void startBlur() {
+        startBlur(getCaptureBackend());
+    }
+
+    private void startBlur(final CaptureBackend captureBackend) {
+        mBlurInFlight = true;
+        getBlurScheduler().submit(this, new BlurTask(mActivity.getWindow(), mTrimTopHeight, mTrimBottomHeight, mBlurRegion, mStackParent, captureBackend, this, new BlurTask.BlurTaskCallback() {
+            @Override
+            public void onBlurFinish(Bitmap bitmap, Bitmap[] levels) {
+                mBlurInFlight = false;
+                if (!mShowing) {
+                    // Prepared ahead of show().
+                    recycleBitmap(mPreparedBitmap);
+                    recycleLevels(mPreparedLevels);
+                    mPreparedBitmap = bitmap;
+                    mPreparedLevels = levels;
+                    return;
+                }
+                if (mCacheKey != null) {
+                    BlurCache.getInstance(mActivity).put(mCacheKey, bitmap);
+                    mCacheKey = null;
+                }
+                if (mBlurredBitmap == null) {
+                    mBlurredBitmap = bitmap;
+                    mBlurLevels = levels;
+                    onBlurredImageGot(bitmap);
+                } else {
+                    recycleLevels(levels);
+                    // Keep the previous frame one more round: it may still be referenced by the
+                    // frame being rendered, so it can not be written by the next blur yet.
+                    recycleBitmap(mRetiredBitmap);
+                    mRetiredBitmap = mBlurredBitmap;
+                    mBlurredBitmap = bitmap;
+                    onBlurredImageUpdated(bitmap);
+                }
+                if (mLiveBlurObserver != null) {
+                    mLiveBlurObserver.onBlurFinish();
+                }
+            }
+
+            @Override
+            public void onBlurFailed(boolean captureTimedOut) {
+                mBlurInFlight = false;
+                if (captureTimedOut && !(captureBackend instanceof PictureCaptureBackend)) {
+                    // Recording a picture finishes on the spot, so it can not time out again.
+                    startBlur(PictureCaptureBackend.getInstance());
+                    return;
+                }
+                if (mShowing && mBlurredBitmap == null) {
+                    // No blur to wait for any more: show the tint alone.
+                    if (mBlurView instanceof BlurImageView) {
+                        ((BlurImageView) mBlurView).setBlurPending(false);
+                    }
+                    if (!mAnimating) {
+                        ObjectAnimator.ofFloat(mBlurView, "alpha", 0, 1f).setDuration(getAnimationDuration()).start();
+                    }
+                }
+                if (mLiveBlurObserver != null) {
+                    mLiveBlurObserver.onBlurFinish();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Give the blurred bitmaps back to the pool once the window has been removed.
+     */
+    private void releaseBlurredImage() {
+        mBlurView.setImageDrawable(null);
+        if (mBlurView instanceof BlurImageView) {
+            ((BlurImageView) mBlurView).setBlurLevels(null);
+        }
+        recycleBitmap(mBlurredBitmap);
+        recycleBitmap(mRetiredBitmap);
+        recycleBitmaps(mBlurLevels);
+        mBlurredBitmap = null;
+        mRetiredBitmap = null;
+        mBlurLevels = null;
+    }
+
+    /**
+     * Return bitmap to the pool unless it went through the blur cache, which shares it. While
+     * pinned it is held back until {@link #unpinBitmaps()}.
+     */
+    private void recycleBitmap(Bitmap bitmap) {
+        if (bitmap == null || BlurCache.getInstance(mActivity).isShared(bitmap)) {
+            return;
+        }
+        if (mPinCount > 0) {
+            mPinnedReleases.add(bitmap);
+        } else {
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    private void recycleBitmaps(Bitmap[] bitmaps) {
+        if (bitmaps != null) {
+            for (Bitmap bitmap : bitmaps) {
+                recycleBitmap(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Keep the bitmaps this popup draws out of the pool, so they are neither reused nor recycled,
+     * while a popup stacked above plays back a recording of it on the blur worker.
+     */
+    @MainThread
+    void pinBitmaps() {
+        mPinCount++;
+    }
+
+    @MainThread
+    void unpinBitmaps() {
+        if (mPinCount > 0 && --mPinCount == 0) {
+            for (Bitmap bitmap : mPinnedReleases) {
+                BitmapPool.getInstance().put(bitmap);
+            }
+            mPinnedReleases.clear();
+        }
+    }
+
+    /**
+     * @return bytes of the bitmaps this popup holds, not counting those held by the blur cache.
+     */
+    @MainThread
+    long getRetainedBytes() {
+        long bytes = retainedBytes(mBlurredBitmap) + retainedBytes(mRetiredBitmap) + retainedBytes(mPreparedBitmap);
+        for (Bitmap bitmap : mPinnedReleases) {
+            bytes += retainedBytes(bitmap);
+        }
+        for (Bitmap[] levels : new Bitmap[][]{mBlurLevels, mPreparedLevels}) {
+            if (levels != null) {
+                for (Bitmap level : levels) {
+                    bytes += retainedBytes(level);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private long retainedBytes(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || BlurCache.getInstance(mActivity).contains(bitmap)) {
+            return 0;
+        }
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * Give back the bitmaps not needed to display this popup: a prepared blur, the blur-in levels
+     * once shown, and with uiHidden the previous live blur frame, which nothing renders then.
+     * Called by {@link BlurResources} on memory trims.
+     */
+    @MainThread
+    void trimMemory(boolean uiHidden) {
+        if (!mShowing) {
+            cancelPrepare();
+            return;
+        }
+        if (mAnimating) {
+            return;
+        }
+        if (mBlurLevels != null) {
+            if (mBlurView instanceof BlurImageView) {
+                ((BlurImageView) mBlurView).setBlurLevels(null);
+            }
+            recycleBitmaps(mBlurLevels);
+            mBlurLevels = null;
+        }
+        if (uiHidden) {
+            recycleBitmap(mRetiredBitmap);
+            mRetiredBitmap = null;
+        }
+    }
+
+    private static void recycleLevels(Bitmap[] levels) {
+        if (levels != null) {
+            for (Bitmap level : levels) {
+                BitmapPool.getInstance().put(level);
+            }
+        }
+    }
+
+    /**
+     * Show the first blurred background. With blur-in levels it is brought in focus from the
+     * sharp background, otherwise it fades in.
+     */
     protected void onBlurredImageGot(Bitmap bitmap) {
         mBlurView.setImageBitmap(bitmap);
-        if (!mAnimating) {
+        if (mBlurLevels != null && mBlurView instanceof BlurImageView) {
+            BlurImageView blurImageView = (BlurImageView) mBlurView;
+            blurImageView.setBlurLevels(mBlurLevels);
+            blurImageView.setBlurProgress(0);
+            mBlurView.setAlpha(1f);
+            ObjectAnimator.ofFloat(blurImageView, BlurImageView.BLUR_PROGRESS, 0, 1f).setDuration(getAnimationDuration()).start();
+        } else if (!mAnimating) {
             ObjectAnimator.ofFloat(mBlurView, "alpha", 0, 1f).setDuration(getAnimationDuration()).start();
         }
     }
 
+    /**
+     * Called in live blur mode with every blurred frame after the first one, which goes to
+     * {@link #onBlurredImageGot(Bitmap)}.
+     */
+    protected void onBlurredImageUpdated(Bitmap bitmap) {
+        mBlurView.setImageBitmap(bitmap);
+    }
+
     /**
      * When executing show method in this method, should override {@link BlurPopupWindow#createShowAnimator()}
      * and return null as well.
@@ -311,16 +762,27 @@ public class BlurPopupWindow extends FrameLayout {
         return mTintColor;
     }
 
+    /**
+     * Color drawn over the blurred background. It is applied when drawing, so it can be changed or
+     * animated while showing without blurring again.
+     */
     public void setTintColor(int tintColor) {
         mTintColor = tintColor;
+        if (mBlurView instanceof BlurImageView) {
+            ((BlurImageView) mBlurView).setTintColor(tintColor);
+        }
     }
 
     public View getAnchorView() {
         return mAnchorView;
     }
 
+    /**
+     * @param anchorView view of the activity kept sharp above the blurred background.
+     */
     public void setAnchorView(View anchorView) {
         mAnchorView = anchorView;
+        mAnchorMirror.setAnchorView(anchorView);
     }
 
     @AnyThread
@@ -341,6 +803,168 @@ public class BlurPopupWindow extends FrameLayout {
         mScaleRatio = scaleRatio;
     }
 
+    /**
+     * @return engine used to blur the background. {@link RenderScriptBlurEngine} if not set.
+     */
+    @AnyThread
+    public BlurEngine getBlurEngine() {
+        if (mBlurEngine == null) {
+            mBlurEngine = RenderScriptBlurEngine.getInstance(getContext());
+        }
+        return mBlurEngine;
+    }
+
+    public void setBlurEngine(BlurEngine blurEngine) {
+        mBlurEngine = blurEngine;
+    }
+
+    /**
+     * @return scheduler running the blur. {@link BlurScheduler#getDefault()} if not set.
+     */
+    public BlurScheduler getBlurScheduler() {
+        return mBlurScheduler != null ? mBlurScheduler : BlurScheduler.getDefault();
+    }
+
+    public void setBlurScheduler(BlurScheduler blurScheduler) {
+        mBlurScheduler = blurScheduler;
+    }
+
+    /**
+     * @return backend capturing the background. {@link PixelCopyCaptureBackend} where supported,
+     * {@link PictureCaptureBackend} otherwise, if not set.
+     */
+    public CaptureBackend getCaptureBackend() {
+        if (mCaptureBackend != null) {
+            return mCaptureBackend;
+        }
+        return PixelCopyCaptureBackend.isSupported() ? PixelCopyCaptureBackend.getInstance() : PictureCaptureBackend.getInstance();
+    }
+
+    public void setCaptureBackend(CaptureBackend captureBackend) {
+        mCaptureBackend = captureBackend;
+    }
+
+    public boolean isDownscaleOnCapture() {
+        return mDownscaleOnCapture;
+    }
+
+    /**
+     * @param downscaleOnCapture true to draw the background directly at {@link #getScaleRatio()}
+     *                           instead of capturing at full resolution and shrinking it later.
+     */
+    public void setDownscaleOnCapture(boolean downscaleOnCapture) {
+        mDownscaleOnCapture = downscaleOnCapture;
+    }
+
+    public boolean isUpscaleOnDraw() {
+        return mUpscaleOnDraw;
+    }
+
+    /**
+     * @param upscaleOnDraw true to keep the blurred bitmap at {@link #getScaleRatio()} and let
+     *                      {@link #mBlurView} scale it when drawing, false to upscale it to full
+     *                      size in background.
+     */
+    public void setUpscaleOnDraw(boolean upscaleOnDraw) {
+        mUpscaleOnDraw = upscaleOnDraw;
+    }
+
+    public BlurBitmapFormat getBitmapFormat() {
+        return mBitmapFormat;
+    }
+
+    /**
+     * @param bitmapFormat pixel format of the captured and blurred background. Formats the blur
+     *                     engine does not support fall back to {@link BlurBitmapFormat#OPAQUE}.
+     */
+    public void setBitmapFormat(@NonNull BlurBitmapFormat bitmapFormat) {
+        mBitmapFormat = bitmapFormat;
+    }
+
+    public boolean isLiveBlur() {
+        return mLiveBlur;
+    }
+
+    /**
+     * @param liveBlur true to blur again whenever the activity below redraws, at most once every
+     *                 {@link #getLiveBlurInterval()} milliseconds.
+     */
+    public void setLiveBlur(boolean liveBlur) {
+        mLiveBlur = liveBlur;
+    }
+
+    public long getLiveBlurInterval() {
+        return mLiveBlurInterval;
+    }
+
+    public void setLiveBlurInterval(long liveBlurInterval) {
+        mLiveBlurInterval = liveBlurInterval;
+    }
+
+    public boolean isBlurCacheEnabled() {
+        return mBlurCacheEnabled;
+    }
+
+    /**
+     * @param blurCacheEnabled true to reuse the blurred background of an earlier show when the
+     *                         screen below did not change. See {@link BlurCache}.
+     */
+    public void setBlurCacheEnabled(boolean blurCacheEnabled) {
+        mBlurCacheEnabled = blurCacheEnabled;
+    }
+
+    public boolean isAdaptiveQuality() {
+        return mAdaptiveQuality;
+    }
+
+    /**
+     * @param adaptiveQuality true to let {@link AdaptiveQuality} lower the scale ratio, or switch
+     *                        the engine, to keep blurs within its latency budget. The scale ratio
+     *                        and radius set here are then the highest quality used.
+     */
+    public void setAdaptiveQuality(boolean adaptiveQuality) {
+        mAdaptiveQuality = adaptiveQuality;
+    }
+
+    public boolean isBlurBehindContentOnly() {
+        return mBlurBehindContentOnly;
+    }
+
+    /**
+     * @param blurBehindContentOnly true to capture and blur only the area behind the content
+     *                              view, the rest of the background gets the tint alone. Saves
+     *                              most of the work for popups covering part of the screen.
+     */
+    public void setBlurBehindContentOnly(boolean blurBehindContentOnly) {
+        mBlurBehindContentOnly = blurBehindContentOnly;
+    }
+
+    public int getBlurInLevels() {
+        return mBlurInLevels;
+    }
+
+    /**
+     * @param blurInLevels number of less blurred versions of the background crossfaded through
+     *                     when showing and dismissing, from the sharp background up. They are
+     *                     made along with the first blur at half its resolution, so even the
+     *                     maximum of 4 take no more memory than the blurred bitmap. 0 to fade
+     *                     the blurred background in instead.
+     */
+    public void setBlurInLevels(int blurInLevels) {
+        mBlurInLevels = Math.max(0, Math.min(MAX_BLUR_IN_LEVELS, blurInLevels));
+    }
+
+    /**
+     * @return engine, scale ratio and radius of the next blur of a width x height background.
+     */
+    private AdaptiveQuality.Decision decideQuality(int width, int height) {
+        if (mAdaptiveQuality) {
+            return AdaptiveQuality.getInstance(mActivity).decide(this, width, height);
+        }
+        BlurEngine engine = getBlurEngine();
+        return new AdaptiveQuality.Decision(engine, mScaleRatio, Math.min(mBlurRadius, engine.getMaxRadius()));
+    }
+
     public long getAnimationDuration() {
         return mAnimationDuration;
     }
@@ -365,6 +989,18 @@ public class BlurPopupWindow extends FrameLayout {
         mDismissOnClickBack = dismissOnClickBack;
     }
 
+    public boolean isReusable() {
+        return mReusable;
+    }
+
+    /**
+     * @param reusable true to put this popup in the {@link PopupPool} of its activity once
+     *                 dismissed, to be obtained and shown again.
+     */
+    public void setReusable(boolean reusable) {
+        mReusable = reusable;
+    }
+
     public OnDismissListener getOnDismissListener() {
         return mOnDismissListener;
     }
@@ -373,6 +1009,28 @@ public class BlurPopupWindow extends FrameLayout {
         mOnDismissListener = onDismissListener;
     }
 
+    public BlurMetrics.Listener getMetricsListener() {
+        return mMetricsListener;
+    }
+
+    /**
+     * @param metricsListener notified with the {@link BlurMetrics} of every blur of this popup.
+     * @see BlurMetrics#setDefaultListener(BlurMetrics.Listener)
+     */
+    public void setMetricsListener(BlurMetrics.Listener metricsListener) {
+        mMetricsListener = metricsListener;
+    }
+
+    private void dispatchBlurMetrics(BlurMetrics metrics) {
+        if (mMetricsListener != null) {
+            mMetricsListener.onBlurMetrics(this, metrics);
+        }
+        BlurMetrics.Listener defaultListener = BlurMetrics.getDefaultListener();
+        if (defaultListener != null && defaultListener != mMetricsListener) {
+            defaultListener.onBlurMetrics(this, metrics);
+        }
+    }
+
     public static class Builder<T extends BlurPopupWindow> {
         private static final String TAG = "BlurPopupWindow.Builder";
         protected Context mContext;
@@ -380,17 +1038,32 @@ public class BlurPopupWindow extends FrameLayout {
         private int mTintColor;
         private float mBlurRadius;
         private float mScaleRatio;
+        private BlurEngine mBlurEngine;
+        private BlurScheduler mBlurScheduler;
+        private CaptureBackend mCaptureBackend;
+        private boolean mDownscaleOnCapture = true;
+        private boolean mUpscaleOnDraw = true;
+        private BlurBitmapFormat mBitmapFormat = BlurBitmapFormat.ARGB_8888;
+        private boolean mLiveBlur;
+        private long mLiveBlurInterval;
+        private boolean mBlurCacheEnabled;
+        private boolean mAdaptiveQuality;
+        private boolean mBlurBehindContentOnly;
+        private int mBlurInLevels;
         private long mAnimationDuration;
         private boolean mDismissOnTouchBackground = true;
         private boolean mDismissOnClickBack = true;
+        private boolean mReusable;
         private int mGravity = -1;
         private OnDismissListener mOnDismissListener;
+        private BlurMetrics.Listener mMetricsListener;
 
         public Builder(Context context) {
             mContext = context;
 
             mBlurRadius = BlurPopupWindow.DEFAULT_BLUR_RADIUS;
             mScaleRatio = BlurPopupWindow.DEFAULT_SCALE_RATIO;
+            mLiveBlurInterval = BlurPopupWindow.DEFAULT_LIVE_BLUR_INTERVAL;
             mAnimationDuration = BlurPopupWindow.DEFAULT_ANIMATION_DURATION;
         }
 
@@ -444,15 +1117,133 @@ public class BlurPopupWindow extends FrameLayout {
             return this;
         }
 
+        /**
+         * Radius above 25 needs an engine that supports it, like {@link PyramidBlurEngine}. It is
+         * clamped to {@link BlurEngine#getMaxRadius()} of the engine in {@link #build()}.
+         */
         public Builder<T> setBlurRadius(float blurRadius) {
-            if (blurRadius < 0 || blurRadius > 25) {
-                Log.w(TAG, "blurRadius invalid: " + blurRadius + ". It can only be [0, 25]");
+            if (blurRadius < 0) {
+                Log.w(TAG, "blurRadius invalid: " + blurRadius + ". It can only be [0, ..)");
                 return this;
             }
             mBlurRadius = blurRadius;
             return this;
         }
 
+        /**
+         * Engine used to blur the background, e.g. {@link StackBlurEngine#getInstance()} to avoid
+         * RenderScript. Defaults to {@link RenderScriptBlurEngine}.
+         */
+        public Builder<T> setBlurEngine(BlurEngine blurEngine) {
+            mBlurEngine = blurEngine;
+            return this;
+        }
+
+        /**
+         * Scheduler running the blur, e.g. one wrapping the app's own executor. Defaults to
+         * {@link BlurScheduler#getDefault()}.
+         */
+        public Builder<T> setBlurScheduler(BlurScheduler blurScheduler) {
+            mBlurScheduler = blurScheduler;
+            return this;
+        }
+
+        /**
+         * Backend capturing the background. Defaults to {@link PixelCopyCaptureBackend} on
+         * Android O and above, {@link PictureCaptureBackend} below.
+         */
+        public Builder<T> setCaptureBackend(CaptureBackend captureBackend) {
+            mCaptureBackend = captureBackend;
+            return this;
+        }
+
+        /**
+         * Draw the background directly at the scale ratio, without a full resolution capture.
+         * Enabled by default.
+         */
+        public Builder<T> setDownscaleOnCapture(boolean downscaleOnCapture) {
+            mDownscaleOnCapture = downscaleOnCapture;
+            return this;
+        }
+
+        /**
+         * Keep the blurred bitmap small and let the view scale it when drawing. Enabled by default.
+         */
+        public Builder<T> setUpscaleOnDraw(boolean upscaleOnDraw) {
+            mUpscaleOnDraw = upscaleOnDraw;
+            return this;
+        }
+
+        /**
+         * Pixel format of the background bitmaps. {@link BlurBitmapFormat#RGB_565} halves their
+         * memory, use it with {@link StackBlurEngine} or {@link PyramidBlurEngine}.
+         */
+        public Builder<T> setBitmapFormat(@NonNull BlurBitmapFormat bitmapFormat) {
+            mBitmapFormat = bitmapFormat;
+            return this;
+        }
+
+        /**
+         * Keep blurring while the popup is showing, so animations and updates of the activity
+         * below stay visible.
+         */
+        public Builder<T> setLiveBlur(boolean liveBlur) {
+            mLiveBlur = liveBlur;
+            return this;
+        }
+
+        /**
+         * Minimum time between two blurs in live blur mode.
+         */
+        public Builder<T> setLiveBlurInterval(long liveBlurInterval) {
+            if (liveBlurInterval < 0) {
+                Log.w(TAG, "liveBlurInterval invalid: " + liveBlurInterval + ". It can only be [0, ..)");
+                return this;
+            }
+            mLiveBlurInterval = liveBlurInterval;
+            return this;
+        }
+
+        /**
+         * Reuse the blurred background of an earlier show over an unchanged screen. Not suitable
+         * for screens whose views draw changing content by themselves, like video.
+         */
+        public Builder<T> setBlurCacheEnabled(boolean blurCacheEnabled) {
+            mBlurCacheEnabled = blurCacheEnabled;
+            return this;
+        }
+
+        /**
+         * Trade blur resolution for speed on slow or loaded devices. The scale ratio and radius
+         * set on this builder become the best quality used. See {@link AdaptiveQuality}.
+         */
+        public Builder<T> setAdaptiveQuality(boolean adaptiveQuality) {
+            mAdaptiveQuality = adaptiveQuality;
+            return this;
+        }
+
+        /**
+         * Blur only the area behind the content view, e.g. for bottom sheets. The rest of the
+         * screen stays unblurred under the tint.
+         */
+        public Builder<T> setBlurBehindContentOnly(boolean blurBehindContentOnly) {
+            mBlurBehindContentOnly = blurBehindContentOnly;
+            return this;
+        }
+
+        /**
+         * Bring the blur in focus through this many blur levels when showing, and back out when
+         * dismissing, instead of fading it in. Between 0 and 4, off by default.
+         */
+        public Builder<T> setBlurInLevels(int blurInLevels) {
+            if (blurInLevels < 0 || blurInLevels > MAX_BLUR_IN_LEVELS) {
+                Log.w(TAG, "blurInLevels invalid: " + blurInLevels + ". It can only be [0, " + MAX_BLUR_IN_LEVELS + "]");
+                return this;
+            }
+            mBlurInLevels = blurInLevels;
+            return this;
+        }
+
         public Builder<T> setAnimationDuration(long animatingDuration) {
             if (animatingDuration < 0) {
                 Log.w(TAG, "animatingDuration invalid: " + animatingDuration + ". It can only be (0, ..)");
@@ -472,16 +1263,42 @@ public class BlurPopupWindow extends FrameLayout {
             return this;
         }
 
+        /**
+         * Return the popup to the {@link PopupPool} once dismissed, for popups shown repeatedly.
+         */
+        public Builder<T> setReusable(boolean reusable) {
+            mReusable = reusable;
+            return this;
+        }
+
         public Builder<T> setOnDismissListener(OnDismissListener onDismissListener) {
             mOnDismissListener = onDismissListener;
             return this;
         }
 
+        /**
+         * Receive timings and allocations of each blur, for example to forward them to telemetry.
+         */
+        public Builder<T> setMetricsListener(BlurMetrics.Listener metricsListener) {
+            mMetricsListener = metricsListener;
+            return this;
+        }
+
         protected T createPopupWindow() {
             //noinspection unchecked
             return (T) new BlurPopupWindow(mContext);
         }
 
+        /**
+         * Build the popup and start blurring its background right away. See
+         * {@link BlurPopupWindow#prepare()}.
+         */
+        public T prepare() {
+            T popupWindow = build();
+            popupWindow.prepare();
+            return popupWindow;
+        }
+
         public T build() {
             T popupWindow = createPopupWindow();
             if (mContentView != null) {
@@ -497,27 +1314,148 @@ public class BlurPopupWindow extends FrameLayout {
             }
             popupWindow.setTintColor(mTintColor);
             popupWindow.setAnimationDuration(mAnimationDuration);
-            popupWindow.setBlurRadius(mBlurRadius);
             popupWindow.setScaleRatio(mScaleRatio);
+            popupWindow.setBlurEngine(mBlurEngine);
+            popupWindow.setBlurScheduler(mBlurScheduler);
+            popupWindow.setCaptureBackend(mCaptureBackend);
+            popupWindow.setDownscaleOnCapture(mDownscaleOnCapture);
+            popupWindow.setUpscaleOnDraw(mUpscaleOnDraw);
+            popupWindow.setBitmapFormat(mBitmapFormat);
+            popupWindow.setLiveBlur(mLiveBlur);
+            popupWindow.setLiveBlurInterval(mLiveBlurInterval);
+            popupWindow.setBlurCacheEnabled(mBlurCacheEnabled);
+            popupWindow.setAdaptiveQuality(mAdaptiveQuality);
+            popupWindow.setBlurBehindContentOnly(mBlurBehindContentOnly);
+            popupWindow.setBlurInLevels(mBlurInLevels);
+            float maxRadius = popupWindow.getBlurEngine().getMaxRadius();
+            if (mBlurRadius > maxRadius) {
+                Log.w(TAG, "blurRadius " + mBlurRadius + " exceeds " + maxRadius + " supported by " + popupWindow.getBlurEngine().getClass().getSimpleName());
+            }
+            popupWindow.setBlurRadius(Math.min(mBlurRadius, maxRadius));
             popupWindow.setDismissOnTouchBackground(mDismissOnTouchBackground);
             popupWindow.setDismissOnClickBack(mDismissOnClickBack);
+            popupWindow.setReusable(mReusable);
             popupWindow.setOnDismissListener(mOnDismissListener);
+            popupWindow.setMetricsListener(mMetricsListener);
             return popupWindow;
         }
     }
 
-    private final static class BlurTask extends AsyncTask<Void, Void, Bitmap> {
+    /**
+     * Re-blurs in live blur mode. Pre-draw of the activity's decor view marks the background dirty;
+     * a dirty background is blurred again once the previous blur finished and the interval passed.
+     * Nothing is done while the activity does not redraw.
+     */
+    private final class LiveBlurObserver implements ViewTreeObserver.OnPreDrawListener, Runnable {
+        private final View mDecorView;
+        private ViewTreeObserver mObserver;
+        private boolean mDirty;
+        private boolean mScheduled;
+        private long mLastStart;
+
+        LiveBlurObserver(View decorView) {
+            mDecorView = decorView;
+            mObserver = decorView.getViewTreeObserver();
+            mObserver.addOnPreDrawListener(this);
+            mLastStart = SystemClock.uptimeMillis();
+        }
+
+        void stop() {
+            if (!mObserver.isAlive()) {
+                mObserver = mDecorView.getViewTreeObserver();
+            }
+            mObserver.removeOnPreDrawListener(this);
+            removeCallbacks(this);
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            mDirty = true;
+            schedule();
+            return true;
+        }
+
+        void onBlurFinish() {
+            if (mDirty) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (mScheduled || mBlurInFlight) {
+                return;
+            }
+            mScheduled = true;
+            postDelayed(this, Math.max(0, mLastStart + mLiveBlurInterval - SystemClock.uptimeMillis()));
+        }
+
+        @Override
+        public void run() {
+            mScheduled = false;
+            if (!mDirty || mBlurInFlight || getParent() == null) {
+                return;
+            }
+            mDirty = false;
+            mLastStart = SystemClock.uptimeMillis();
+            startBlur();
+        }
+    }
+
+    private final static class BlurTask extends BlurScheduler.Job {
+        private static final long CAPTURE_TIMEOUT = 1000;
+        private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
 
         private WeakReference<Context> mContextRef;
         private WeakReference<BlurPopupWindow> mPopupWindowRef;
         private Bitmap mSourceBitmap;
+        private Bitmap mResult;
+        private boolean mSourceScaled;
+        private boolean mUpscaleOnDraw;
+        private BlurEngine mEngine;
+        private float mScaleRatio;
+        private float mBlurRadius;
+        private boolean mAdaptive;
+        private BlurBitmapFormat mFormat;
+        private int mLevelCount;
+        private Bitmap[] mLevels;
+        private BlurPopupWindow mPinnedParent;
+        private BlurMetrics mMetrics;
+        private final Runnable mCaptureTimeout = new Runnable() {
+            @Override
+            public void run() {
+                onCaptureTimedOut();
+            }
+        };
+        private Runnable mExecute;
+        private boolean mCaptureDone;
+        private volatile boolean mCaptureTimedOut;
+        private Runnable mRasterizer;
+        private long mCapturedAt;
+        private String mCaptureThreadName;
+        private int mWidth;
+        private int mHeight;
         private BlurTaskCallback mBlurTaskCallback;
 
         interface BlurTaskCallback {
-            void onBlurFinish(Bitmap bitmap);
+            /**
+             * @param levels blur-in levels, from the sharpest, if the popup asked for them.
+             */
+            void onBlurFinish(Bitmap bitmap, Bitmap[] levels);
+
+            /**
+             * @param captureTimedOut whether the capture did not finish in time, so another backend
+             *                        may still succeed.
+             */
+            void onBlurFailed(boolean captureTimedOut);
         }
 
-        BlurTask(View sourceView, int statusBarHeight, int navigationBarheight, BlurPopupWindow popupWindow, BlurTaskCallback blurTaskCallback) {
+        /**
+         * @param region      part of the area between the trims to capture, or null for all of it.
+         * @param stackParent popup showing below, captured over the activity instead of blurring
+         *                    the activity alone.
+         */
+        BlurTask(Window window, int statusBarHeight, int navigationBarheight, Rect region, BlurPopupWindow stackParent, CaptureBackend captureBackend, BlurPopupWindow popupWindow, BlurTaskCallback blurTaskCallback) {
+            View sourceView = window.getDecorView();
             mContextRef = new WeakReference<>(sourceView.getContext());
             mPopupWindowRef = new WeakReference<>(popupWindow);
             mBlurTaskCallback = blurTaskCallback;
@@ -527,84 +1465,307 @@ public class BlurPopupWindow extends FrameLayout {
                 height = sourceView.getHeight();
             }
 
-            Drawable background = sourceView.getBackground();
-            mSourceBitmap = Bitmap.createBitmap(sourceView.getWidth(), height, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(mSourceBitmap);
-            int saveCount = 0;
-            if (statusBarHeight != 0) {
-                saveCount = canvas.save();
-                canvas.translate(0, -statusBarHeight);
+            mWidth = sourceView.getWidth();
+            mHeight = height;
+            int offsetX = 0;
+            int offsetY = statusBarHeight;
+            if (region != null) {
+                mWidth = region.width();
+                mHeight = region.height();
+                offsetX = region.left;
+                offsetY += region.top;
+            }
+            mUpscaleOnDraw = popupWindow.isUpscaleOnDraw();
+            AdaptiveQuality.Decision quality = popupWindow.decideQuality(mWidth, mHeight);
+            mEngine = quality.mEngine;
+            mScaleRatio = quality.mScaleRatio;
+            mBlurRadius = quality.mBlurRadius;
+            mAdaptive = popupWindow.isAdaptiveQuality();
+            mFormat = popupWindow.getBitmapFormat().resolve(mEngine);
+            BlurResources.getInstance(popupWindow.getContext()).registerEngine(mEngine);
+            // Only the first blur of a show is animated in; live blur frames do without levels.
+            mLevelCount = popupWindow.mBlurredBitmap == null ? popupWindow.mBlurInLevels : 0;
+            mMetrics = new BlurMetrics(mEngine, mFormat, mBlurRadius, mScaleRatio);
+            mMetrics.begin(BlurMetrics.Stage.CAPTURE);
+
+            // Capture straight into a bitmap of the scaled size so the full resolution capture
+            // never exists.
+            mSourceScaled = popupWindow.isDownscaleOnCapture();
+            int captureWidth = mWidth;
+            int captureHeight = mHeight;
+            if (mSourceScaled) {
+                captureWidth = Math.max(1, (int) (mWidth * mScaleRatio));
+                captureHeight = Math.max(1, (int) (mHeight * mScaleRatio));
             }
-            if (popupWindow.getBlurRadius() > 0) {
-                if (background == null) {
-                    canvas.drawColor(0xffffffff);
+
+            mSourceBitmap = obtainBitmap(BitmapPool.getInstance(), captureWidth, captureHeight);
+            mMetrics.setCaptureSize(captureWidth, captureHeight);
+            Rect source = new Rect(offsetX, offsetY, offsetX + mWidth, offsetY + mHeight);
+            CaptureBackend.Callback callback = new CaptureBackend.Callback() {
+                @Override
+                public void onCaptureFinished(Runnable rasterizer) {
+                    captureFinished(rasterizer);
                 }
-                sourceView.draw(canvas);
+            };
+            if (stackParent != null) {
+                captureStacked(window, source, stackParent, captureBackend, callback);
+            } else {
+                captureBackend.capture(window, source, mSourceBitmap, callback);
             }
-            if (popupWindow.getTintColor() != 0) {
-                canvas.drawColor(popupWindow.getTintColor());
+            mMetrics.end(BlurMetrics.Stage.CAPTURE);
+        }
+
+        /**
+         * The popup below already shows the activity blurred. Record it and lay the recording
+         * over the activity captured by the backend as usual, or over nothing where its blur hides
+         * the activity entirely. Its bitmaps are pinned until the recording has been played back.
+         */
+        private void captureStacked(Window window, final Rect source, BlurPopupWindow stackParent, CaptureBackend captureBackend, final CaptureBackend.Callback callback) {
+            final Bitmap target = mSourceBitmap;
+            final Picture parent = PictureCaptureBackend.record(source, stackParent, false);
+            stackParent.pinBitmaps();
+            mPinnedParent = stackParent;
+            CaptureBackend.Callback composite = new CaptureBackend.Callback() {
+                @Override
+                public void onCaptureFinished(final Runnable rasterizer) {
+                    callback.onCaptureFinished(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (rasterizer != null) {
+                                rasterizer.run();
+                            }
+                            PictureCaptureBackend.playBack(parent, source, target);
+                        }
+                    });
+                }
+            };
+            if (stackParent.coversBlurArea()) {
+                composite.onCaptureFinished(new Runnable() {
+                    @Override
+                    public void run() {
+                        target.eraseColor(target.hasAlpha() ? Color.TRANSPARENT : Color.WHITE);
+                    }
+                });
+            } else {
+                captureBackend.capture(window, source, target, composite);
+            }
+        }
+
+        /**
+         * Let the popup below give its bitmaps back once the recording of it is no longer needed.
+         */
+        private void unpinParent() {
+            if (mPinnedParent != null) {
+                mPinnedParent.unpinBitmaps();
+                mPinnedParent = null;
             }
-            if (statusBarHeight != 0 && saveCount != 0) {
-                canvas.restoreToCount(saveCount);
+        }
+
+        private synchronized void captureFinished(Runnable rasterizer) {
+            if (mCaptureDone) {
+                // Too late, the job went on without it.
+                return;
             }
+            mRasterizer = rasterizer;
+            mCapturedAt = System.nanoTime();
+            mCaptureThreadName = Thread.currentThread().getName();
+            mCaptureDone = true;
+            startIfReady();
         }
 
+        private synchronized void onCaptureTimedOut() {
+            if (!mCaptureDone) {
+                mCaptureTimedOut = true;
+                mCaptureDone = true;
+                startIfReady();
+            }
+        }
+
+        /**
+         * Hand the job to a worker only once the capture finished, so a slow capture does not hold
+         * the worker other popups' blurs run on. Give up on the capture after
+         * {@link #CAPTURE_TIMEOUT} so the popup always hears back.
+         */
         @Override
-        protected Bitmap doInBackground(Void... params) {
+        protected synchronized void onSubmitted(@NonNull Runnable execute) {
+            mExecute = execute;
+            if (!mCaptureDone) {
+                sMainHandler.postDelayed(mCaptureTimeout, CAPTURE_TIMEOUT);
+            }
+            startIfReady();
+        }
+
+        private void startIfReady() {
+            if (mCaptureDone && mExecute != null) {
+                Runnable execute = mExecute;
+                mExecute = null;
+                sMainHandler.removeCallbacks(mCaptureTimeout);
+                execute.run();
+            }
+        }
+
+        @Override
+        protected void run() {
+            Runnable rasterizer;
+            synchronized (this) {
+                rasterizer = mRasterizer;
+                mRasterizer = null;
+            }
+            if (mCaptureTimedOut) {
+                // The backend may still write the bitmap, so it can not go back to the pool.
+                mSourceBitmap = null;
+                return;
+            }
+            mMetrics.waitedUntil(BlurMetrics.Stage.CAPTURE_WAIT, mCapturedAt, mCaptureThreadName);
+            mMetrics.waited(BlurMetrics.Stage.QUEUE);
+            if (rasterizer != null && !isCancelled()) {
+                mMetrics.begin(BlurMetrics.Stage.RASTERIZE);
+                rasterizer.run();
+                mMetrics.end(BlurMetrics.Stage.RASTERIZE);
+            }
+            mResult = blur();
+        }
+
+        /**
+         * Run the pipeline, checking for cancellation between stages. Whatever the stage, bitmaps
+         * no longer needed go back to the pool and null is returned once cancelled.
+         */
+        private Bitmap blur() {
             Context context = mContextRef.get();
             BlurPopupWindow popupWindow = mPopupWindowRef.get();
-            if (context == null || popupWindow == null) {
+            BitmapPool pool = BitmapPool.getInstance();
+            Bitmap source = mSourceBitmap;
+            mSourceBitmap = null;
+            if (context == null || popupWindow == null || isCancelled()) {
+                pool.put(source);
                 return null;
             }
-            float scaleRatio = popupWindow.getScaleRatio();
-            if (popupWindow.getBlurRadius() == 0) {
-                return mSourceBitmap;
+            Bitmap scaledBitmap;
+            if (mSourceScaled) {
+                scaledBitmap = source;
+            } else {
+                mMetrics.begin(BlurMetrics.Stage.DOWNSCALE);
+                scaledBitmap = obtainBitmap(pool, Math.max(1, (int) (mWidth * mScaleRatio)), Math.max(1, (int) (mHeight * mScaleRatio)));
+                drawScaled(source, scaledBitmap, null);
+                pool.put(source);
+                mMetrics.end(BlurMetrics.Stage.DOWNSCALE);
+                if (isCancelled()) {
+                    pool.put(scaledBitmap);
+                    return null;
+                }
             }
-            Bitmap scaledBitmap = Bitmap.createScaledBitmap(mSourceBitmap, (int) (mSourceBitmap.getWidth() * scaleRatio), (int) (mSourceBitmap.getHeight() * scaleRatio), false);
-            float radius = popupWindow.getBlurRadius();
-            Bitmap blurred = BlurUtils.blur(context, scaledBitmap, radius);
-            return Bitmap.createScaledBitmap(blurred, mSourceBitmap.getWidth(), mSourceBitmap.getHeight(), true);
+            int scaledWidth = scaledBitmap.getWidth();
+            int scaledHeight = scaledBitmap.getHeight();
+
+            mMetrics.begin(BlurMetrics.Stage.BLUR);
+            if (mLevelCount > 0) {
+                // Given back in onCancelled() if cancelled from here on.
+                mLevels = blurLevels(pool, scaledBitmap);
+            }
+            Bitmap blurred = obtainBitmap(pool, scaledWidth, scaledHeight);
+            mEngine.blur(scaledBitmap, blurred, mBlurRadius);
+            pool.put(scaledBitmap);
+            mMetrics.setBlurredSize(scaledWidth, scaledHeight);
+            mMetrics.end(BlurMetrics.Stage.BLUR);
+            if (isCancelled()) {
+                pool.put(blurred);
+                return null;
+            }
+
+            if (mUpscaleOnDraw) {
+                // mBlurView scales it to full size with filtering when drawing.
+                blurred.prepareToDraw();
+                mMetrics.setResultSize(scaledWidth, scaledHeight);
+                return blurred;
+            }
+            mMetrics.begin(BlurMetrics.Stage.UPSCALE);
+            Bitmap result = obtainBitmap(pool, mWidth, mHeight);
+            drawScaled(blurred, result, new Paint(Paint.FILTER_BITMAP_FLAG));
+            pool.put(blurred);
+            mMetrics.setResultSize(mWidth, mHeight);
+            mMetrics.end(BlurMetrics.Stage.UPSCALE);
+            return result;
         }
 
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            BlurPopupWindow popupWindow = mPopupWindowRef.get();
-            if (popupWindow != null && popupWindow.getAnchorView() != null) {
-                Canvas canvas = new Canvas(bitmap);
-                View anchorView = popupWindow.getAnchorView();
-                int[] location = new int[2];
-                anchorView.getLocationInWindow(location);
-                canvas.save();
-                canvas.translate(location[0], location[1]);
-                popupWindow.getAnchorView().draw(canvas);
-                canvas.restore();
+        /**
+         * Make the blur-in levels from the scaled capture, the first one sharp and the others
+         * blurred up to just below the final radius. They are half the scaled size, so the at most
+         * {@link #MAX_BLUR_IN_LEVELS} of them take no more memory than the blurred bitmap.
+         */
+        private Bitmap[] blurLevels(BitmapPool pool, Bitmap scaledBitmap) {
+            int width = Math.max(1, scaledBitmap.getWidth() / 2);
+            int height = Math.max(1, scaledBitmap.getHeight() / 2);
+            Bitmap[] levels = new Bitmap[mLevelCount];
+            levels[0] = obtainBitmap(pool, width, height);
+            drawScaled(scaledBitmap, levels[0], new Paint(Paint.FILTER_BITMAP_FLAG));
+            for (int i = 1; i < levels.length; i++) {
+                levels[i] = obtainBitmap(pool, width, height);
+                mEngine.blur(levels[0], levels[i], Math.max(1, mBlurRadius * i / levels.length / 2));
             }
-            if (mBlurTaskCallback != null) {
-                mBlurTaskCallback.onBlurFinish(bitmap);
+            for (Bitmap level : levels) {
+                level.prepareToDraw();
             }
+            return levels;
         }
-    }
 
-    private static int getNaviHeight(Activity activity) {
-        if (activity == null) {
-            return 0;
+        /**
+         * Pooled bitmaps keep the alpha flag of their last user, so it is set on every reuse.
+         */
+        private Bitmap obtainBitmap(BitmapPool pool, int width, int height) {
+            Bitmap bitmap = pool.take(width, height, mFormat.getConfig());
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, mFormat.getConfig());
+                mMetrics.allocated(bitmap.getByteCount());
+            }
+            bitmap.setHasAlpha(mFormat.hasAlpha());
+            return bitmap;
         }
-        Display display = activity.getWindowManager().getDefaultDisplay();
-        int contentHeight = activity.getResources().getDisplayMetrics().heightPixels;
-        int realHeight = 0;
-        if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            final DisplayMetrics metrics = new DisplayMetrics();
-            display.getRealMetrics(metrics);
-            realHeight = metrics.heightPixels;
-        } else {
-            try {
-                Method mGetRawH = Display.class.getMethod("getRawHeight");
-                realHeight = (Integer) mGetRawH.invoke(display);
-            } catch (Exception e) {
-                e.printStackTrace();
+
+        private static void drawScaled(Bitmap source, Bitmap target, Paint paint) {
+            Canvas canvas = new Canvas(target);
+            canvas.drawBitmap(source, null, new Rect(0, 0, target.getWidth(), target.getHeight()), paint);
+        }
+
+        @Override
+        protected void onCancelled() {
+            unpinParent();
+            // The capture is still here if the job was cancelled before it ran. It is only
+            // reusable if the backend is done with it.
+            if (!mCaptureTimedOut) {
+                BitmapPool.getInstance().put(mSourceBitmap);
+            }
+            BitmapPool.getInstance().put(mResult);
+            recycleLevels(mLevels);
+            mSourceBitmap = null;
+            mResult = null;
+            mLevels = null;
+        }
+
+        @Override
+        protected void deliver() {
+            unpinParent();
+            mMetrics.waited(BlurMetrics.Stage.DELIVER);
+            Bitmap bitmap = mResult;
+            Bitmap[] levels = mLevels;
+            mResult = null;
+            mLevels = null;
+            BlurPopupWindow popupWindow = mPopupWindowRef.get();
+            if (popupWindow == null || bitmap == null) {
+                BitmapPool.getInstance().put(bitmap);
+                recycleLevels(levels);
+                if (popupWindow != null && mBlurTaskCallback != null) {
+                    mBlurTaskCallback.onBlurFailed(mCaptureTimedOut);
+                }
+                return;
+            }
+            if (mAdaptive) {
+                AdaptiveQuality.getInstance(popupWindow.getContext()).record(mEngine, mMetrics);
+            }
+            if (mBlurTaskCallback != null) {
+                mBlurTaskCallback.onBlurFinish(bitmap, levels);
             }
+            popupWindow.dispatchBlurMetrics(mMetrics);
         }
-        return realHeight - contentHeight;
     }
 
 }
@@ -0,0 +1,164 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Process wide owner of the memory the library keeps between blurs: {@link BitmapPool},
+ * {@link BlurCache}, buffers and native contexts of the {@link BlurEngine}s in use, and bitmaps held
+ * by popups that are not showing them.
+ * <p>
+ * It is the only {@link ComponentCallbacks2} the library registers, and releases them by trim
+ * level:
+ * <ul>
+ * <li>{@link #TRIM_MEMORY_RUNNING_LOW}: half of the pool and of the cache, engine caches.</li>
+ * <li>{@link #TRIM_MEMORY_UI_HIDDEN} and {@link #TRIM_MEMORY_RUNNING_CRITICAL}: the pool, the
+ * cache, and prepared, retired and blur-in bitmaps of popups.</li>
+ * <li>{@link #TRIM_MEMORY_BACKGROUND}, {@link #TRIM_MEMORY_RUNNING_CRITICAL} and
+ * {@link #onLowMemory()}: engines are {@link BlurEngine#destroy() destroyed} and the
+ * {@link PopupPool} is emptied too.</li>
+ * </ul>
+ * The blurred background of a showing popup is kept so it is intact when the activity comes back.
+ * Everything else is rebuilt lazily on next use. Only used from the main thread. Engines are
+ * trimmed on the {@link BlurScheduler#getDefault() default scheduler}'s thread, as they hold their
+ * lock for a whole blur.
+ */
+public final class BlurResources implements ComponentCallbacks2 {
+    private static BlurResources sInstance;
+
+    private final Set<BlurEngine> mEngines = Collections.newSetFromMap(new WeakHashMap<BlurEngine, Boolean>());
+    private final Set<BlurPopupWindow> mPopupWindows = Collections.newSetFromMap(new WeakHashMap<BlurPopupWindow, Boolean>());
+    private BlurCache mBlurCache;
+
+    public static synchronized BlurResources getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new BlurResources();
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    private BlurResources() {
+    }
+
+    /**
+     * Trim engine along with the rest. Engines that are {@link ComponentCallbacks2}, like
+     * {@link RenderScriptBlurEngine}, get the trim level; others are destroyed on heavy trims.
+     */
+    @MainThread
+    synchronized void registerEngine(BlurEngine engine) {
+        mEngines.add(engine);
+    }
+
+    @MainThread
+    synchronized void registerPopupWindow(BlurPopupWindow popupWindow) {
+        mPopupWindows.add(popupWindow);
+    }
+
+    @MainThread
+    synchronized void registerBlurCache(BlurCache blurCache) {
+        mBlurCache = blurCache;
+    }
+
+    /**
+     * @return bytes currently held by the library between blurs: pooled and cached bitmaps,
+     * bitmaps held by popups and buffers of the built-in pure Java engines. Memory of native
+     * contexts, like RenderScript's, is not included. Waits for a blur in progress on those
+     * engines, so it is meant for diagnostics rather than every frame.
+     */
+    @MainThread
+    public long getRetainedBytes() {
+        long bytes = BitmapPool.getInstance().getBytes();
+        BlurCache blurCache;
+        ArrayList<BlurEngine> engines;
+        ArrayList<BlurPopupWindow> popupWindows;
+        synchronized (this) {
+            blurCache = mBlurCache;
+            engines = new ArrayList<>(mEngines);
+            popupWindows = new ArrayList<>(mPopupWindows);
+        }
+        if (blurCache != null) {
+            bytes += blurCache.getBytes();
+        }
+        for (BlurEngine engine : engines) {
+            if (engine instanceof StackBlurEngine) {
+                bytes += ((StackBlurEngine) engine).getRetainedBytes();
+            } else if (engine instanceof PyramidBlurEngine) {
+                bytes += ((PyramidBlurEngine) engine).getRetainedBytes();
+            } else if (engine instanceof RecursiveGaussianBlurEngine) {
+                bytes += ((RecursiveGaussianBlurEngine) engine).getRetainedBytes();
+            }
+        }
+        for (BlurPopupWindow popupWindow : popupWindows) {
+            bytes += popupWindow.getRetainedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        BlurCache blurCache;
+        ArrayList<BlurEngine> engines;
+        ArrayList<BlurPopupWindow> popupWindows;
+        synchronized (this) {
+            blurCache = mBlurCache;
+            engines = new ArrayList<>(mEngines);
+            popupWindows = new ArrayList<>(mPopupWindows);
+        }
+
+        BitmapPool pool = BitmapPool.getInstance();
+        boolean hidden = level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL;
+        if (hidden) {
+            pool.clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            pool.trimToSize(pool.getMaxBytes() / 2);
+        }
+        if (blurCache != null) {
+            blurCache.onTrimMemory(level);
+        }
+        if (hidden) {
+            for (BlurPopupWindow popupWindow : popupWindows) {
+                popupWindow.trimMemory(level >= TRIM_MEMORY_UI_HIDDEN);
+            }
+            // Popups gave their bitmaps back to the pool.
+            pool.clear();
+        }
+        boolean destroyEngines = level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL;
+        if (destroyEngines) {
+            PopupPool.clear();
+        }
+        trimEngines(engines, level, destroyEngines);
+    }
+
+    private static void trimEngines(final ArrayList<BlurEngine> engines, final int level, final boolean destroy) {
+        BlurScheduler.getDefault().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (BlurEngine engine : engines) {
+                    if (engine instanceof ComponentCallbacks2) {
+                        ((ComponentCallbacks2) engine).onTrimMemory(level);
+                    } else if (destroy) {
+                        engine.destroy();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+}
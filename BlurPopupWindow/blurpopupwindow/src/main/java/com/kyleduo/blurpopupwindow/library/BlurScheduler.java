@@ -0,0 +1,169 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs blur jobs in background and delivers their results on the main thread.
+ * <p>
+ * Jobs are submitted with a key, usually the popup window. Submitting a job for a key that still
+ * has one pending cancels the older one, so a window never waits for a stale blur. The default
+ * scheduler owns one thread running at display priority; any {@link Executor} can be used
+ * instead. A job may hold its start back until it is ready, without taking a thread meanwhile.
+ */
+public class BlurScheduler {
+    private static BlurScheduler sDefault;
+
+    private final Executor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Object, Job> mJobs = new HashMap<>();
+
+    /**
+     * Unit of work run by a {@link BlurScheduler}.
+     */
+    public static abstract class Job {
+        private volatile boolean mCancelled;
+
+        /**
+         * Mark this job cancelled. {@link #run()} is skipped if it has not started, and
+         * {@link #onCancelled()} is called instead of {@link #deliver()}.
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @WorkerThread
+        protected abstract void run();
+
+        @MainThread
+        protected abstract void deliver();
+
+        /**
+         * Called on submission with the work running this job on the executor and then delivering
+         * it. A job waiting for something first, like an asynchronous capture, keeps it and runs
+         * it once ready, from any thread, so no worker is blocked while it waits. It must be run
+         * exactly once. Runs it right away by default.
+         */
+        protected void onSubmitted(@NonNull Runnable execute) {
+            execute.run();
+        }
+
+        /**
+         * Called on the main thread once a cancelled job left the worker. Release any result here.
+         */
+        @MainThread
+        protected void onCancelled() {
+        }
+    }
+
+    public static synchronized BlurScheduler getDefault() {
+        if (sDefault == null) {
+            sDefault = new BlurScheduler(createDefaultExecutor());
+        }
+        return sDefault;
+    }
+
+    /**
+     * Replace the scheduler used by popups that do not set their own.
+     */
+    public static synchronized void setDefault(BlurScheduler scheduler) {
+        sDefault = scheduler;
+    }
+
+    public BlurScheduler(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Run job in background and deliver it on the main thread. A job still pending for the same
+     * key is cancelled.
+     */
+    public void submit(@NonNull final Object key, @NonNull final Job job) {
+        synchronized (mJobs) {
+            Job previous = mJobs.put(key, job);
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+        final Runnable work = new Runnable() {
+            @Override
+            public void run() {
+                if (!job.isCancelled()) {
+                    job.run();
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mJobs) {
+                            if (mJobs.get(key) == job) {
+                                mJobs.remove(key);
+                            }
+                        }
+                        if (job.isCancelled()) {
+                            job.onCancelled();
+                        } else {
+                            job.deliver();
+                        }
+                    }
+                });
+            }
+        };
+        job.onSubmitted(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.execute(work);
+            }
+        });
+    }
+
+    /**
+     * Cancel the job pending for key, if any.
+     */
+    public void cancel(@NonNull Object key) {
+        synchronized (mJobs) {
+            Job job = mJobs.remove(key);
+            if (job != null) {
+                job.cancel();
+            }
+        }
+    }
+
+    /**
+     * Run work in background, after the jobs already queued. Nothing is delivered.
+     */
+    void execute(@NonNull Runnable work) {
+        mExecutor.execute(work);
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                        r.run();
+                    }
+                }, "BlurScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
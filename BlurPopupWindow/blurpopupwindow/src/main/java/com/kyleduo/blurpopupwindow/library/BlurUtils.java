@@ -5,9 +5,6 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.support.annotation.FloatRange;
 import android.support.annotation.MainThread;
-import android.support.v8.renderscript.Allocation;
-import android.support.v8.renderscript.RenderScript;
-import android.support.v8.renderscript.ScriptIntrinsicBlur;
 import android.view.View;
 
 /**
@@ -22,20 +19,7 @@ public class BlurUtils {
     }
 
     public static Bitmap blur(Context context, Bitmap origin, @FloatRange(from = 0, to = 25) float radius) {
-        Bitmap scaled = Bitmap.createScaledBitmap(origin, origin.getWidth(), origin.getHeight(), false);
-        Bitmap output = Bitmap.createBitmap(scaled);
-
-        RenderScript rs = RenderScript.create(context);
-        Allocation allIn = Allocation.createFromBitmap(rs, scaled);
-        Allocation allOut = Allocation.createFromBitmap(rs, output);
-
-        ScriptIntrinsicBlur blur = ScriptIntrinsicBlur.create(rs, allIn.getElement());
-
-        blur.setRadius(radius);
-        blur.setInput(allIn);
-        blur.forEach(allOut);
-        allOut.copyTo(output);
-        return output;
+        return RenderScriptBlurEngine.getInstance(context).blur(origin, radius);
     }
 
     @MainThread
@@ -0,0 +1,41 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.support.annotation.AnyThread;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Window;
+
+/**
+ * Source of the pixels a {@link BlurPopupWindow} blurs.
+ * <p>
+ * A capture may finish synchronously or later on any thread; the blur job is only handed to a
+ * worker once it finished, or gave up after a timeout. It may also leave work for the blur worker,
+ * like rasterizing what was recorded on the main thread.
+ * Implementations are shared between popups.
+ */
+public interface CaptureBackend {
+
+    interface Callback {
+        /**
+         * Called exactly once, when the backend is done with target. Target must not be written
+         * by the backend afterwards.
+         *
+         * @param rasterizer work filling target, run on the blur worker before blurring. Null if
+         *                   target holds the captured pixels already.
+         */
+        @AnyThread
+        void onCaptureFinished(@Nullable Runnable rasterizer);
+    }
+
+    /**
+     * Capture the area source of window, in decor view coordinates, scaled to fill target.
+     *
+     * @param target mutable bitmap whose content is undefined. Its alpha flag tells whether
+     *               transparent areas must be kept.
+     */
+    @MainThread
+    void capture(@NonNull Window window, @NonNull Rect source, @NonNull Bitmap target, @NonNull Callback callback);
+}
@@ -0,0 +1,114 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.support.annotation.MainThread;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/**
+ * Cheap signature of what a view hierarchy draws, computed from view state without drawing it.
+ * <p>
+ * It covers class, visibility, bounds, scroll, alpha and transform, drawable state, background,
+ * text and image drawables of every visible view. Content a view draws by itself without any of
+ * these changing (custom drawing, video, animated drawables) is not seen. Pressed, focused and
+ * activated states are left out unless asked for: the view tapped to open a popup is pressed when
+ * the popup is shown but not when it is {@link BlurPopupWindow#prepare() prepared} on touch down.
+ */
+final class ContentSignature {
+    private static final int[] INPUT_STATES = {
+            android.R.attr.state_pressed,
+            android.R.attr.state_focused,
+            android.R.attr.state_activated,
+    };
+
+    private ContentSignature() {
+    }
+
+    @MainThread
+    static long of(View view) {
+        return of(view, false);
+    }
+
+    /**
+     * @param inputStates true to tell pressed, focused and activated states apart too.
+     */
+    @MainThread
+    static long of(View view, boolean inputStates) {
+        return hash(1125899906842597L, view, inputStates, true);
+    }
+
+    /**
+     * Signature of what view draws itself, input states included. Its own alpha and transform
+     * are left out, they are applied by whoever draws it.
+     */
+    @MainThread
+    static long ofContent(View view) {
+        return hash(1125899906842597L, view, true, false);
+    }
+
+    private static long hash(long h, View view, boolean inputStates, boolean transform) {
+        h = mix(h, view.getClass().hashCode());
+        h = mix(h, view.getVisibility());
+        if (view.getVisibility() != View.VISIBLE) {
+            return h;
+        }
+        h = mix(h, view.getLeft());
+        h = mix(h, view.getTop());
+        h = mix(h, view.getRight());
+        h = mix(h, view.getBottom());
+        h = mix(h, view.getScrollX());
+        h = mix(h, view.getScrollY());
+        if (transform) {
+            h = mix(h, Float.floatToIntBits(view.getAlpha()));
+            h = mix(h, Float.floatToIntBits(view.getTranslationX()));
+            h = mix(h, Float.floatToIntBits(view.getTranslationY()));
+            h = mix(h, Float.floatToIntBits(view.getScaleX()));
+            h = mix(h, Float.floatToIntBits(view.getScaleY()));
+            h = mix(h, Float.floatToIntBits(view.getRotation()));
+        }
+        h = mix(h, drawableStateHash(view.getDrawableState(), inputStates));
+        h = mix(h, System.identityHashCode(view.getBackground()));
+        if (view instanceof TextView) {
+            TextView textView = (TextView) view;
+            CharSequence text = textView.getText();
+            h = mix(h, text == null ? 0 : text.toString().hashCode());
+            h = mix(h, textView.getCurrentTextColor());
+        }
+        if (view instanceof ImageView) {
+            h = mix(h, System.identityHashCode(((ImageView) view).getDrawable()));
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            int count = group.getChildCount();
+            h = mix(h, count);
+            for (int i = 0; i < count; i++) {
+                h = hash(h, group.getChildAt(i), inputStates, true);
+            }
+        }
+        return h;
+    }
+
+    private static int drawableStateHash(int[] drawableState, boolean inputStates) {
+        int h = 1;
+        for (int state : drawableState) {
+            if (inputStates || !isInputState(state)) {
+                h = 31 * h + state;
+            }
+        }
+        return h;
+    }
+
+    private static boolean isInputState(int state) {
+        for (int inputState : INPUT_STATES) {
+            if (state == inputState) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long mix(long h, int value) {
+        return (h ^ value) * 1099511628211L;
+    }
+}
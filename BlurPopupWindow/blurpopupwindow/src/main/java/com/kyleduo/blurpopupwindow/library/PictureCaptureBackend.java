@@ -0,0 +1,73 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.Window;
+
+/**
+ * {@link CaptureBackend} recording the decor view into a {@link Picture} on the main thread and
+ * playing it back into the bitmap on the blur worker.
+ * <p>
+ * Recording only walks the hierarchy and stores drawing commands; rasterizing them, the bulk of a
+ * software capture, happens in background. What is captured is the same as with
+ * {@link SoftwareCaptureBackend}. Bitmaps drawn by views are referenced by the picture until it is
+ * played back, so they must not be recycled while a popup is blurring.
+ */
+public class PictureCaptureBackend implements CaptureBackend {
+    private static PictureCaptureBackend sInstance;
+
+    public static synchronized PictureCaptureBackend getInstance() {
+        if (sInstance == null) {
+            sInstance = new PictureCaptureBackend();
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void capture(@NonNull Window window, @NonNull Rect source, @NonNull Bitmap target, @NonNull Callback callback) {
+        View decorView = window.getDecorView();
+        final Picture picture = record(source, decorView, decorView.getBackground() == null);
+        final Rect area = new Rect(source);
+        final Bitmap bitmap = target;
+        callback.onCaptureFinished(new Runnable() {
+            @Override
+            public void run() {
+                bitmap.eraseColor(bitmap.hasAlpha() ? Color.TRANSPARENT : Color.WHITE);
+                playBack(picture, area, bitmap);
+            }
+        });
+    }
+
+    /**
+     * Record the area source of view on the main thread.
+     *
+     * @param fillWhite true to record white under the view, for a decor view without background.
+     */
+    @MainThread
+    static Picture record(Rect source, View view, boolean fillWhite) {
+        Picture picture = new Picture();
+        Canvas canvas = picture.beginRecording(source.width(), source.height());
+        canvas.translate(-source.left, -source.top);
+        if (fillWhite) {
+            canvas.drawColor(0xffffffff);
+        }
+        view.draw(canvas);
+        picture.endRecording();
+        return picture;
+    }
+
+    /**
+     * Draw a recording of the area source scaled over the content of target.
+     */
+    static void playBack(Picture picture, Rect source, Bitmap target) {
+        Canvas canvas = new Canvas(target);
+        canvas.scale(target.getWidth() / (float) source.width(), target.getHeight() / (float) source.height());
+        picture.draw(canvas);
+    }
+}
@@ -0,0 +1,77 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.view.PixelCopy;
+import android.view.Window;
+
+/**
+ * {@link CaptureBackend} copying the window's rendered pixels with {@link PixelCopy}, on Android O
+ * and above.
+ * <p>
+ * The copy and its scaling are done by the GPU and reported on a background thread, so the main
+ * thread only issues the request. What is copied is what was last drawn on screen, hardware layers
+ * and TextureViews included. Where PixelCopy is not available, the target config is not
+ * ARGB_8888, the window is not hardware accelerated or the copy fails,
+ * {@link PictureCaptureBackend} is used instead.
+ */
+public class PixelCopyCaptureBackend implements CaptureBackend {
+    private static PixelCopyCaptureBackend sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Handler mCopyHandler;
+
+    public static synchronized PixelCopyCaptureBackend getInstance() {
+        if (sInstance == null) {
+            sInstance = new PixelCopyCaptureBackend();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return whether PixelCopy can be used on this device.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    @Override
+    public void capture(@NonNull Window window, @NonNull Rect source, @NonNull Bitmap target, @NonNull Callback callback) {
+        if (!isSupported() || target.getConfig() != Bitmap.Config.ARGB_8888 || !window.getDecorView().isHardwareAccelerated()) {
+            PictureCaptureBackend.getInstance().capture(window, source, target, callback);
+            return;
+        }
+        request(window, source, target, callback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private void request(final Window window, final Rect source, final Bitmap target, final Callback callback) {
+        if (mCopyHandler == null) {
+            HandlerThread thread = new HandlerThread("BlurCapture");
+            thread.start();
+            mCopyHandler = new Handler(thread.getLooper());
+        }
+        PixelCopy.request(window, new Rect(source), target, new PixelCopy.OnPixelCopyFinishedListener() {
+            @Override
+            public void onPixelCopyFinished(int copyResult) {
+                if (copyResult == PixelCopy.SUCCESS) {
+                    callback.onCaptureFinished(null);
+                    return;
+                }
+                // Nothing drawn yet, surface gone or similar: record it instead.
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        PictureCaptureBackend.getInstance().capture(window, source, target, callback);
+                    }
+                });
+            }
+        }, mCopyHandler);
+    }
+}
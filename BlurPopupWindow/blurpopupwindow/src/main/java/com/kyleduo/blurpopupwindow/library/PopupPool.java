@@ -0,0 +1,126 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Small per-activity pool of dismissed popups, keyed by popup class, so showing a popup again
+ * skips inflating its content and building its views.
+ * <p>
+ * Popups built {@link BlurPopupWindow.Builder#setReusable reusable} come back here once
+ * dismissed. Pools are dropped when their activity is destroyed, and on heavy memory trims.
+ * <pre>
+ * SharePopup popup = PopupPool.obtain(activity, SharePopup.class);
+ * if (popup == null) {
+ *     popup = new SharePopup.Builder(activity).setReusable(true).build();
+ * }
+ * popup.show();
+ * </pre>
+ */
+public final class PopupPool {
+    private static final int MAX_POOLED_PER_TYPE = 2;
+
+    private static final Map<Activity, Map<Class<?>, List<BlurPopupWindow>>> sPools = new HashMap<>();
+    private static Application sApplication;
+
+    private PopupPool() {
+    }
+
+    /**
+     * @return a dismissed popup of type built for activity, taken out of the pool, or null.
+     */
+    @MainThread
+    public static <T extends BlurPopupWindow> T obtain(@NonNull Activity activity, @NonNull Class<T> type) {
+        Map<Class<?>, List<BlurPopupWindow>> pool = sPools.get(activity);
+        List<BlurPopupWindow> popupWindows = pool == null ? null : pool.get(type);
+        while (popupWindows != null && !popupWindows.isEmpty()) {
+            BlurPopupWindow popupWindow = popupWindows.remove(popupWindows.size() - 1);
+            // Shown again by a reference kept outside the pool.
+            if (!popupWindow.isShowing()) {
+                return type.cast(popupWindow);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keep a dismissed popup for {@link #obtain}. Ignored if the pool of its type is full.
+     */
+    @MainThread
+    public static void release(@NonNull BlurPopupWindow popupWindow) {
+        if (popupWindow.isShowing() || !(popupWindow.getContext() instanceof Activity)) {
+            return;
+        }
+        Activity activity = (Activity) popupWindow.getContext();
+        if (activity.isFinishing()) {
+            return;
+        }
+        registerLifecycleCallbacks(activity);
+        Map<Class<?>, List<BlurPopupWindow>> pool = sPools.get(activity);
+        if (pool == null) {
+            pool = new HashMap<>();
+            sPools.put(activity, pool);
+        }
+        List<BlurPopupWindow> popupWindows = pool.get(popupWindow.getClass());
+        if (popupWindows == null) {
+            popupWindows = new ArrayList<>(MAX_POOLED_PER_TYPE);
+            pool.put(popupWindow.getClass(), popupWindows);
+        }
+        if (popupWindows.size() < MAX_POOLED_PER_TYPE && !popupWindows.contains(popupWindow)) {
+            popupWindows.add(popupWindow);
+        }
+    }
+
+    /**
+     * Drop all pooled popups.
+     */
+    @MainThread
+    public static void clear() {
+        sPools.clear();
+    }
+
+    private static void registerLifecycleCallbacks(Activity activity) {
+        if (sApplication != null) {
+            return;
+        }
+        sApplication = activity.getApplication();
+        sApplication.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                sPools.remove(activity);
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.app.Activity;
+import android.support.annotation.MainThread;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Popups showing over each activity, in the order they were shown. A popup shown over another one
+ * blurs what the one below displays instead of capturing the activity again.
+ */
+final class PopupStack {
+    private static final Map<Activity, List<WeakReference<BlurPopupWindow>>> sStacks = new WeakHashMap<>();
+
+    private PopupStack() {
+    }
+
+    /**
+     * @return the popup showing on top over activity, or null.
+     */
+    @MainThread
+    static BlurPopupWindow top(Activity activity) {
+        List<WeakReference<BlurPopupWindow>> stack = sStacks.get(activity);
+        if (stack == null) {
+            return null;
+        }
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            BlurPopupWindow popupWindow = stack.get(i).get();
+            if (popupWindow != null) {
+                return popupWindow;
+            }
+        }
+        return null;
+    }
+
+    @MainThread
+    static void push(Activity activity, BlurPopupWindow popupWindow) {
+        List<WeakReference<BlurPopupWindow>> stack = sStacks.get(activity);
+        if (stack == null) {
+            stack = new ArrayList<>();
+            sStacks.put(activity, stack);
+        }
+        stack.add(new WeakReference<>(popupWindow));
+    }
+
+    @MainThread
+    static void remove(Activity activity, BlurPopupWindow popupWindow) {
+        List<WeakReference<BlurPopupWindow>> stack = sStacks.get(activity);
+        if (stack == null) {
+            return;
+        }
+        Iterator<WeakReference<BlurPopupWindow>> iterator = stack.iterator();
+        while (iterator.hasNext()) {
+            BlurPopupWindow entry = iterator.next().get();
+            if (entry == null || entry == popupWindow) {
+                iterator.remove();
+            }
+        }
+        if (stack.isEmpty()) {
+            sStacks.remove(activity);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.kyleduo.blurpopupwindow.library;
+
+/**
+ * Large-radius blur on ARGB int pixels using a downsample / upsample pyramid, in the style of the
+ * dual Kawase filter.
+ * <p>
+ * The image is halved with the Kawase downsample filter until the remaining radius is small, the
+ * smallest level is stack blurred, and the levels are walked back up with the Kawase upsample
+ * filter. Every level has a quarter of the pixels of the previous one, so the cost stays close to
+ * that of a few full-size passes whatever the radius. This class has no Android dependency and is
+ * not thread safe; level buffers are kept between calls.
+ */
+public class PyramidBlur {
+    /**
+     * Radius left for the stack blur on the smallest level.
+     */
+    static final int MAX_BASE_RADIUS = 6;
+
+    private final StackBlur mStackBlur;
+    private int[][] mLevels = new int[0][];
+
+    public PyramidBlur(StackBlur stackBlur) {
+        mStackBlur = stackBlur;
+    }
+
+    /**
+     * @return how many times the image is halved for the given radius.
+     */
+    public static int levelsFor(float radius, int width, int height) {
+        int levels = 0;
+        while (radius / (1 << levels) > MAX_BASE_RADIUS && (width >> (levels + 1)) > 0 && (height >> (levels + 1)) > 0) {
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * Blur pixels in place.
+     *
+     * @param radius blur radius in pixels of the full size image, may be far above 25.
+     */
+    public void blur(final int[] pixels, final int width, final int height, float radius) {
+        if (radius < 1 || width <= 0 || height <= 0) {
+            return;
+        }
+        int levels = levelsFor(radius, width, height);
+        if (levels == 0) {
+            mStackBlur.blur(pixels, width, height, Math.round(radius));
+            return;
+        }
+        if (mLevels.length < levels) {
+            int[][] grown = new int[levels][];
+            System.arraycopy(mLevels, 0, grown, 0, mLevels.length);
+            mLevels = grown;
+        }
+
+        int[] widths = new int[levels + 1];
+        int[] heights = new int[levels + 1];
+        widths[0] = width;
+        heights[0] = height;
+        for (int i = 1; i <= levels; i++) {
+            widths[i] = (widths[i - 1] + 1) / 2;
+            heights[i] = (heights[i - 1] + 1) / 2;
+            if (mLevels[i - 1] == null || mLevels[i - 1].length < widths[i] * heights[i]) {
+                mLevels[i - 1] = new int[widths[i] * heights[i]];
+            }
+        }
+
+        for (int i = 1; i <= levels; i++) {
+            downsample(level(pixels, i - 1), widths[i - 1], heights[i - 1], level(pixels, i), widths[i], heights[i]);
+        }
+        mStackBlur.blur(level(pixels, levels), widths[levels], heights[levels], Math.round(radius / (1 << levels)));
+        for (int i = levels; i > 0; i--) {
+            upsample(level(pixels, i), widths[i], heights[i], level(pixels, i - 1), widths[i - 1], heights[i - 1]);
+        }
+    }
+
+    /**
+     * @return bytes of the level buffers kept between calls.
+     */
+    public long getBufferBytes() {
+        long bytes = 0;
+        for (int[] level : mLevels) {
+            if (level != null) {
+                bytes += level.length * 4L;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Drop the level buffers; they are allocated again by the next blur.
+     */
+    public void releaseBuffers() {
+        mLevels = new int[0][];
+    }
+
+    private int[] level(int[] pixels, int level) {
+        return level == 0 ? pixels : mLevels[level - 1];
+    }
+
+    private void downsample(final int[] src, final int srcWidth, final int srcHeight, final int[] dst, final int dstWidth, int dstHeight) {
+        mStackBlur.forEachBand(dstHeight, dstWidth, new StackBlur.Band() {
+            @Override
+            public void run(int start, int end) {
+                downsampleRows(src, srcWidth, srcHeight, dst, dstWidth, start, end);
+            }
+        });
+    }
+
+    private void upsample(final int[] src, final int srcWidth, final int srcHeight, final int[] dst, final int dstWidth, int dstHeight) {
+        mStackBlur.forEachBand(dstHeight, dstWidth, new StackBlur.Band() {
+            @Override
+            public void run(int start, int end) {
+                upsampleRows(src, srcWidth, srcHeight, dst, dstWidth, start, end);
+            }
+        });
+    }
+
+    /**
+     * Kawase downsample: four times the 2x2 block under the destination pixel plus the four 2x2
+     * blocks centered on its corners, divided by 8. Each block is a bilinear tap on a texel corner.
+     */
+    static void downsampleRows(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth, int start, int end) {
+        int[] sum = new int[4];
+        for (int y = start; y < end; y++) {
+            int cy = 2 * y + 1;
+            for (int x = 0; x < dstWidth; x++) {
+                int cx = 2 * x + 1;
+                sum[0] = sum[1] = sum[2] = sum[3] = 0;
+                addCorner(src, srcWidth, srcHeight, cx, cy, 4, sum);
+                addCorner(src, srcWidth, srcHeight, cx - 1, cy - 1, 1, sum);
+                addCorner(src, srcWidth, srcHeight, cx + 1, cy - 1, 1, sum);
+                addCorner(src, srcWidth, srcHeight, cx - 1, cy + 1, 1, sum);
+                addCorner(src, srcWidth, srcHeight, cx + 1, cy + 1, 1, sum);
+                dst[y * dstWidth + x] = pack(sum, 32);
+            }
+        }
+    }
+
+    /**
+     * Sum the 2x2 texels around corner (x, y), i.e. texels x - 1 and x by y - 1 and y, clamped.
+     */
+    private static void addCorner(int[] src, int width, int height, int x, int y, int weight, int[] sum) {
+        int x0 = clamp(x - 1, width);
+        int x1 = clamp(x, width);
+        int y0 = clamp(y - 1, height) * width;
+        int y1 = clamp(y, height) * width;
+        add(src[y0 + x0], weight, sum);
+        add(src[y0 + x1], weight, sum);
+        add(src[y1 + x0], weight, sum);
+        add(src[y1 + x1], weight, sum);
+    }
+
+    /**
+     * Kawase upsample: four axis taps one source texel away with weight 1 and four diagonal taps
+     * half a texel away with weight 2, divided by 12. Positions are in quarter texels so that the
+     * bilinear weights stay integers.
+     */
+    static void upsampleRows(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth, int start, int end) {
+        int[] sum = new int[4];
+        for (int y = start; y < end; y++) {
+            // Center of destination pixel y in source texel space is y / 2 - 0.25.
+            int qy = 2 * y - 1;
+            for (int x = 0; x < dstWidth; x++) {
+                int qx = 2 * x - 1;
+                sum[0] = sum[1] = sum[2] = sum[3] = 0;
+                addBilinear(src, srcWidth, srcHeight, qx - 4, qy, 1, sum);
+                addBilinear(src, srcWidth, srcHeight, qx + 4, qy, 1, sum);
+                addBilinear(src, srcWidth, srcHeight, qx, qy - 4, 1, sum);
+                addBilinear(src, srcWidth, srcHeight, qx, qy + 4, 1, sum);
+                addBilinear(src, srcWidth, srcHeight, qx - 2, qy - 2, 2, sum);
+                addBilinear(src, srcWidth, srcHeight, qx + 2, qy - 2, 2, sum);
+                addBilinear(src, srcWidth, srcHeight, qx - 2, qy + 2, 2, sum);
+                addBilinear(src, srcWidth, srcHeight, qx + 2, qy + 2, 2, sum);
+                dst[y * dstWidth + x] = pack(sum, 12 * 16);
+            }
+        }
+    }
+
+    /**
+     * Add a bilinear sample at (qx / 4, qy / 4) in texel space, scaled by 16 * weight.
+     */
+    private static void addBilinear(int[] src, int width, int height, int qx, int qy, int weight, int[] sum) {
+        int fx = qx & 3;
+        int fy = qy & 3;
+        int x0 = clamp(qx >> 2, width);
+        int x1 = clamp((qx >> 2) + 1, width);
+        int y0 = clamp(qy >> 2, height) * width;
+        int y1 = clamp((qy >> 2) + 1, height) * width;
+        add(src[y0 + x0], (4 - fx) * (4 - fy) * weight, sum);
+        add(src[y0 + x1], fx * (4 - fy) * weight, sum);
+        add(src[y1 + x0], (4 - fx) * fy * weight, sum);
+        add(src[y1 + x1], fx * fy * weight, sum);
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : value >= size ? size - 1 : value;
+    }
+
+    private static void add(int pixel, int weight, int[] sum) {
+        if (weight == 0) {
+            return;
+        }
+        sum[0] += (pixel >>> 24) * weight;
+        sum[1] += ((pixel >> 16) & 0xff) * weight;
+        sum[2] += ((pixel >> 8) & 0xff) * weight;
+        sum[3] += (pixel & 0xff) * weight;
+    }
+
+    private static int pack(int[] sum, int divisor) {
+        int half = divisor / 2;
+        return (sum[0] + half) / divisor << 24 | (sum[1] + half) / divisor << 16 | (sum[2] + half) / divisor << 8 | (sum[3] + half) / divisor;
+    }
+}
@@ -0,0 +1,66 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+/**
+ * {@link BlurEngine} using {@link PyramidBlur}, for radii far beyond the 25px RenderScript limit at
+ * roughly constant cost.
+ */
+public class PyramidBlurEngine implements BlurEngine {
+    private static final float MAX_RADIUS = 1000;
+
+    private static PyramidBlurEngine sInstance;
+
+    private final PyramidBlur mPyramidBlur;
+    private int[] mPixels;
+
+    public static synchronized PyramidBlurEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new PyramidBlurEngine(StackBlur.getDefault());
+        }
+        return sInstance;
+    }
+
+    public PyramidBlurEngine(@NonNull StackBlur stackBlur) {
+        mPyramidBlur = new PyramidBlur(stackBlur);
+    }
+
+    @Override
+    public synchronized void blur(@NonNull Bitmap input, @NonNull Bitmap output, float radius) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        if (mPixels == null || mPixels.length < width * height) {
+            mPixels = new int[width * height];
+        }
+        input.getPixels(mPixels, 0, width, 0, 0, width, height);
+        mPyramidBlur.blur(mPixels, width, height, radius);
+        output.setPixels(mPixels, 0, width, 0, 0, width, height);
+    }
+
+    /**
+     * Pixels go through {@link Bitmap#getPixels}, which converts any config to ARGB.
+     */
+    @Override
+    public boolean supports(@NonNull Bitmap.Config config) {
+        return config == Bitmap.Config.ARGB_8888 || config == Bitmap.Config.RGB_565;
+    }
+
+    @Override
+    public float getMaxRadius() {
+        return MAX_RADIUS;
+    }
+
+    /**
+     * @return bytes of the pixel and level buffers kept between blurs.
+     */
+    synchronized long getRetainedBytes() {
+        return (mPixels != null ? mPixels.length * 4L : 0) + mPyramidBlur.getBufferBytes();
+    }
+
+    @Override
+    public synchronized void destroy() {
+        mPixels = null;
+        mPyramidBlur.releaseBuffers();
+    }
+}
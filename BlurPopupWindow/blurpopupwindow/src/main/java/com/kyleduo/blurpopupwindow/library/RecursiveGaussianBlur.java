@@ -0,0 +1,334 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import java.util.Arrays;
+
+/**
+ * Gaussian blur on ARGB int pixels with the recursive filter of Young and van Vliet, whose cost
+ * per pixel does not depend on the radius.
+ * <p>
+ * Each line is run through a third order causal filter forward and the same filter backward,
+ * first along rows and then along columns, which approximates a Gaussian of any sigma in a fixed
+ * number of operations per pixel. The radius is turned into sigma like
+ * {@link android.support.v8.renderscript.ScriptIntrinsicBlur} does, so a radius looks the same as
+ * with {@link RenderScriptBlurEngine}. Lines are clamped at the edges. Below sigma 2, where the
+ * recursive filter strays furthest from a Gaussian, a direct kernel of at most 13 taps is used
+ * instead, so the cost stays bounded there too. Bands of lines run on the pool of a
+ * {@link StackBlur}. This class has no Android dependency.
+ */
+public class RecursiveGaussianBlur {
+    /**
+     * Smallest sigma blurred with the recursive filter.
+     */
+    static final float MIN_RECURSIVE_SIGMA = 2;
+
+    private final StackBlur mStackBlur;
+    private volatile Coefficients mCoefficients;
+
+    /**
+     * @param stackBlur stack blur whose workers run the bands.
+     */
+    public RecursiveGaussianBlur(StackBlur stackBlur) {
+        mStackBlur = stackBlur;
+    }
+
+    /**
+     * @return sigma of the Gaussian used for radius.
+     */
+    public static float sigmaFor(float radius) {
+        return 0.4f * radius + 0.6f;
+    }
+
+    /**
+     * Blur pixels in place.
+     *
+     * @param radius blur radius in pixels, any size. Nothing happens if it is not above 0.
+     */
+    public void blur(final int[] pixels, final int width, final int height, float radius) {
+        if (radius <= 0 || width <= 0 || height <= 0) {
+            return;
+        }
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("pixels too short: " + pixels.length + " < " + width + "x" + height);
+        }
+        float sigma = sigmaFor(radius);
+        final Coefficients coefficients = sigma >= MIN_RECURSIVE_SIGMA ? coefficientsFor(sigma) : null;
+        final float[] kernel = coefficients == null ? kernel(sigma) : null;
+        mStackBlur.forEachBand(height, width, new StackBlur.Band() {
+            @Override
+            public void run(int start, int end) {
+                double[] line = new double[width * 4];
+                for (int y = start; y < end; y++) {
+                    if (coefficients != null) {
+                        blurLine(pixels, y * width, 1, width, coefficients, line);
+                    } else {
+                        convolveLine(pixels, y * width, 1, width, kernel, line);
+                    }
+                }
+            }
+        });
+        mStackBlur.forEachBand(width, height, new StackBlur.Band() {
+            @Override
+            public void run(int start, int end) {
+                double[] line = new double[height * 4];
+                for (int x = start; x < end; x++) {
+                    if (coefficients != null) {
+                        blurLine(pixels, x, width, height, coefficients, line);
+                    } else {
+                        convolveLine(pixels, x, width, height, kernel, line);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return coefficients for sigma, kept from the previous blur if it used the same sigma, as
+     * live blur and repeated popups do.
+     */
+    Coefficients coefficientsFor(float sigma) {
+        Coefficients coefficients = mCoefficients;
+        if (coefficients == null || coefficients.mSigma != sigma) {
+            coefficients = new Coefficients(sigma);
+            mCoefficients = coefficients;
+        }
+        return coefficients;
+    }
+
+    /**
+     * @return normalized Gaussian weights for offsets 0 to 3 sigma.
+     */
+    static float[] kernel(float sigma) {
+        float[] kernel = new float[(int) Math.ceil(3 * sigma) + 1];
+        float sum = 0;
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] = (float) Math.exp(-i * i / (2.0 * sigma * sigma));
+            sum += i == 0 ? kernel[i] : 2 * kernel[i];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= sum;
+        }
+        return kernel;
+    }
+
+    /**
+     * Convolve one line of pixels with the symmetric kernel, in place. line holds the channels of
+     * the line and is at least 4 * length long.
+     */
+    static void convolveLine(int[] pixels, int offset, int stride, int length, float[] kernel, double[] line) {
+        for (int i = 0, index = offset; i < length; i++, index += stride) {
+            int p = pixels[index];
+            int j = i * 4;
+            line[j] = p >>> 24;
+            line[j + 1] = (p >> 16) & 0xff;
+            line[j + 2] = (p >> 8) & 0xff;
+            line[j + 3] = p & 0xff;
+        }
+        int last = length - 1;
+        int reach = kernel.length - 1;
+        for (int i = 0, index = offset; i < length; i++, index += stride) {
+            int j = i * 4;
+            double w = kernel[0];
+            double a = w * line[j], r = w * line[j + 1], g = w * line[j + 2], b = w * line[j + 3];
+            if (i >= reach && i + reach <= last) {
+                for (int k = 1, before = j - 4, after = j + 4; k <= reach; k++, before -= 4, after += 4) {
+                    w = kernel[k];
+                    a += w * (line[before] + line[after]);
+                    r += w * (line[before + 1] + line[after + 1]);
+                    g += w * (line[before + 2] + line[after + 2]);
+                    b += w * (line[before + 3] + line[after + 3]);
+                }
+            } else {
+                for (int k = 1; k <= reach; k++) {
+                    w = kernel[k];
+                    int before = Math.max(0, i - k) * 4;
+                    int after = Math.min(last, i + k) * 4;
+                    a += w * (line[before] + line[after]);
+                    r += w * (line[before + 1] + line[after + 1]);
+                    g += w * (line[before + 2] + line[after + 2]);
+                    b += w * (line[before + 3] + line[after + 3]);
+                }
+            }
+            pixels[index] = (channel(a) << 24) | (channel(r) << 16) | (channel(g) << 8) | channel(b);
+        }
+    }
+
+    /**
+     * Blur one line of pixels in place. Pixel i of the line is pixels[offset + i * stride]; line
+     * holds the forward pass and is at least 4 * length long. Doubles are needed for large sigma,
+     * where b is too small for floats.
+     */
+    static void blurLine(int[] pixels, int offset, int stride, int length, Coefficients c, double[] line) {
+        final double b = c.mB;
+        final double k1 = c.mA1;
+        final double k2 = c.mA2;
+        final double k3 = c.mA3;
+
+        // Forward, starting as if the first pixel extended to the left forever.
+        int p = pixels[offset];
+        double a = p >>> 24, r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, bl = p & 0xff;
+        double a1 = a, a2 = a, a3 = a;
+        double r1 = r, r2 = r, r3 = r;
+        double g1 = g, g2 = g, g3 = g;
+        double b1 = bl, b2 = bl, b3 = bl;
+        for (int i = 0, index = offset; i < length; i++, index += stride) {
+            p = pixels[index];
+            double wa = b * (p >>> 24) + k1 * a1 + k2 * a2 + k3 * a3;
+            double wr = b * ((p >> 16) & 0xff) + k1 * r1 + k2 * r2 + k3 * r3;
+            double wg = b * ((p >> 8) & 0xff) + k1 * g1 + k2 * g2 + k3 * g3;
+            double wb = b * (p & 0xff) + k1 * b1 + k2 * b2 + k3 * b3;
+            a3 = a2;
+            a2 = a1;
+            a1 = wa;
+            r3 = r2;
+            r2 = r1;
+            r1 = wr;
+            g3 = g2;
+            g2 = g1;
+            g1 = wg;
+            b3 = b2;
+            b2 = b1;
+            b1 = wb;
+            int j = i * 4;
+            line[j] = wa;
+            line[j + 1] = wr;
+            line[j + 2] = wg;
+            line[j + 3] = wb;
+        }
+
+        // Backward, starting from the exact state of a line continued with its last pixel.
+        p = pixels[offset + (length - 1) * stride];
+        double[] e = c.mEdge;
+        int last = (length - 1) * 4;
+        int before = Math.max(0, length - 2) * 4;
+        int first = Math.max(0, length - 3) * 4;
+        double ua = p >>> 24, ur = (p >> 16) & 0xff, ug = (p >> 8) & 0xff, ub = p & 0xff;
+        double da0 = line[last] - ua, da1 = forward(line, length - 2, before, a) - ua, da2 = forward(line, length - 3, first, a) - ua;
+        double dr0 = line[last + 1] - ur, dr1 = forward(line, length - 2, before + 1, r) - ur, dr2 = forward(line, length - 3, first + 1, r) - ur;
+        double dg0 = line[last + 2] - ug, dg1 = forward(line, length - 2, before + 2, g) - ug, dg2 = forward(line, length - 3, first + 2, g) - ug;
+        double db0 = line[last + 3] - ub, db1 = forward(line, length - 2, before + 3, bl) - ub, db2 = forward(line, length - 3, first + 3, bl) - ub;
+        a1 = ua + e[0] * da0 + e[1] * da1 + e[2] * da2;
+        a2 = ua + e[3] * da0 + e[4] * da1 + e[5] * da2;
+        a3 = ua + e[6] * da0 + e[7] * da1 + e[8] * da2;
+        r1 = ur + e[0] * dr0 + e[1] * dr1 + e[2] * dr2;
+        r2 = ur + e[3] * dr0 + e[4] * dr1 + e[5] * dr2;
+        r3 = ur + e[6] * dr0 + e[7] * dr1 + e[8] * dr2;
+        g1 = ug + e[0] * dg0 + e[1] * dg1 + e[2] * dg2;
+        g2 = ug + e[3] * dg0 + e[4] * dg1 + e[5] * dg2;
+        g3 = ug + e[6] * dg0 + e[7] * dg1 + e[8] * dg2;
+        b1 = ub + e[0] * db0 + e[1] * db1 + e[2] * db2;
+        b2 = ub + e[3] * db0 + e[4] * db1 + e[5] * db2;
+        b3 = ub + e[6] * db0 + e[7] * db1 + e[8] * db2;
+        for (int i = length - 1, index = offset + i * stride; i >= 0; i--, index -= stride) {
+            int j = i * 4;
+            double ya = b * line[j] + k1 * a1 + k2 * a2 + k3 * a3;
+            double yr = b * line[j + 1] + k1 * r1 + k2 * r2 + k3 * r3;
+            double yg = b * line[j + 2] + k1 * g1 + k2 * g2 + k3 * g3;
+            double yb = b * line[j + 3] + k1 * b1 + k2 * b2 + k3 * b3;
+            a3 = a2;
+            a2 = a1;
+            a1 = ya;
+            r3 = r2;
+            r2 = r1;
+            r1 = yr;
+            g3 = g2;
+            g2 = g1;
+            g1 = yg;
+            b3 = b2;
+            b2 = b1;
+            b1 = yb;
+            pixels[index] = (channel(ya) << 24) | (channel(yr) << 16) | (channel(yg) << 8) | channel(yb);
+        }
+    }
+
+    /**
+     * @return forward pass value of pixel i at position j of line, or the value before the line
+     * starts for negative i.
+     */
+    private static double forward(double[] line, int i, int j, double start) {
+        return i < 0 ? start : line[j];
+    }
+
+    private static int channel(double value) {
+        int rounded = (int) (value + 0.5);
+        return rounded < 0 ? 0 : rounded > 255 ? 255 : rounded;
+    }
+
+    /**
+     * Filter coefficients for one sigma, normalized so that a constant line is left unchanged:
+     * out[n] = b * in[n] + a1 * out[n - 1] + a2 * out[n - 2] + a3 * out[n - 3].
+     * <p>
+     * The edge matrix gives the state the backward pass starts from at the end of a line, as
+     * Triggs and Sdika do: how far the three backward values after the line lie from the last
+     * pixel, from how far the last three forward values do. It is found by running the filter
+     * over the continuation of the line once per sigma instead of once per line, in a buffer
+     * only as long as the response takes to die out.
+     */
+    static final class Coefficients {
+        private static final double EDGE_EPSILON = 1e-7;
+        private static final int MIN_EDGE_LENGTH = 256;
+        private static final int MAX_EDGE_LENGTH = 1 << 16;
+
+        final float mSigma;
+        final double mB;
+        final double mA1;
+        final double mA2;
+        final double mA3;
+        final double[] mEdge = new double[9];
+
+        Coefficients(float sigma) {
+            mSigma = sigma;
+            double q = sigma >= 2.5
+                    ? 0.98711 * sigma - 0.96330
+                    : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+            double q2 = q * q;
+            double q3 = q2 * q;
+            double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+            double b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+            double b2 = -(1.4281 * q2 + 1.26661 * q3);
+            double b3 = 0.422205 * q3;
+            mA1 = b1 / b0;
+            mA2 = b2 / b0;
+            mA3 = b3 / b0;
+            mB = 1 - mA1 - mA2 - mA3;
+            computeEdge(mA1, mA2, mA3);
+        }
+
+        /**
+         * Column j of the edge matrix is the response to a forward value j pixels before the end
+         * lying 1 away from the last pixel.
+         */
+        private void computeEdge(double a1, double a2, double a3) {
+            double b = 1 - a1 - a2 - a3;
+            double[] w = new double[MIN_EDGE_LENGTH];
+            for (int j = 0; j < 3; j++) {
+                // Forward pass past the end, where the input equals the last pixel.
+                w[0] = 0;
+                w[1] = 0;
+                w[2] = 0;
+                w[2 - j] = 1;
+                int length = 3;
+                while (length < MAX_EDGE_LENGTH + 3) {
+                    if (length == w.length) {
+                        w = Arrays.copyOf(w, Math.min(MAX_EDGE_LENGTH + 3, w.length * 2));
+                    }
+                    double next = a1 * w[length - 1] + a2 * w[length - 2] + a3 * w[length - 3];
+                    w[length++] = next;
+                    if (Math.abs(next) < EDGE_EPSILON && Math.abs(w[length - 2]) < EDGE_EPSILON && Math.abs(w[length - 3]) < EDGE_EPSILON) {
+                        break;
+                    }
+                }
+                // Backward pass from where it died out down to just after the line.
+                double y1 = 0, y2 = 0, y3 = 0;
+                for (int n = length - 1; n >= 3; n--) {
+                    double y = b * w[n] + a1 * y1 + a2 * y2 + a3 * y3;
+                    y3 = y2;
+                    y2 = y1;
+                    y1 = y;
+                }
+                mEdge[j] = y1;
+                mEdge[3 + j] = y2;
+                mEdge[6 + j] = y3;
+            }
+        }
+    }
+}
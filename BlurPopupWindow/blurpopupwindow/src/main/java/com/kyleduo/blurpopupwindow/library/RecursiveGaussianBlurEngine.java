@@ -0,0 +1,68 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+/**
+ * {@link BlurEngine} using {@link RecursiveGaussianBlur}: a close approximation of the RenderScript
+ * Gaussian at the same cost for any radius, so the radius is not limited to 25px.
+ */
+public class RecursiveGaussianBlurEngine implements BlurEngine {
+    private static final float MAX_RADIUS = 1000;
+
+    private static RecursiveGaussianBlurEngine sInstance;
+
+    private final RecursiveGaussianBlur mRecursiveGaussianBlur;
+    private int[] mPixels;
+
+    public static synchronized RecursiveGaussianBlurEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new RecursiveGaussianBlurEngine(StackBlur.getDefault());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param stackBlur stack blur whose workers run the bands of each pass.
+     */
+    public RecursiveGaussianBlurEngine(@NonNull StackBlur stackBlur) {
+        mRecursiveGaussianBlur = new RecursiveGaussianBlur(stackBlur);
+    }
+
+    @Override
+    public synchronized void blur(@NonNull Bitmap input, @NonNull Bitmap output, float radius) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        if (mPixels == null || mPixels.length < width * height) {
+            mPixels = new int[width * height];
+        }
+        input.getPixels(mPixels, 0, width, 0, 0, width, height);
+        mRecursiveGaussianBlur.blur(mPixels, width, height, radius);
+        output.setPixels(mPixels, 0, width, 0, 0, width, height);
+    }
+
+    /**
+     * Pixels go through {@link Bitmap#getPixels}, which converts any config to ARGB.
+     */
+    @Override
+    public boolean supports(@NonNull Bitmap.Config config) {
+        return config == Bitmap.Config.ARGB_8888 || config == Bitmap.Config.RGB_565;
+    }
+
+    @Override
+    public float getMaxRadius() {
+        return MAX_RADIUS;
+    }
+
+    /**
+     * @return bytes of the pixel buffer kept between blurs.
+     */
+    synchronized long getRetainedBytes() {
+        return mPixels != null ? mPixels.length * 4L : 0;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        mPixels = null;
+    }
+}
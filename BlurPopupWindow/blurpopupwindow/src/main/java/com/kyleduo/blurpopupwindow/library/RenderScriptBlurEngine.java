@@ -0,0 +1,181 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.support.annotation.FloatRange;
+import android.support.annotation.NonNull;
+import android.support.v8.renderscript.Allocation;
+import android.support.v8.renderscript.Element;
+import android.support.v8.renderscript.RenderScript;
+import android.support.v8.renderscript.ScriptIntrinsicBlur;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Long-lived RenderScript blur engine, backed by {@link ScriptIntrinsicBlur}.
+ * <p>
+ * One RenderScript context and one {@link ScriptIntrinsicBlur} are created lazily and kept across
+ * blurs. Allocations are created backed by the bitmaps they read from / write to
+ * ({@link Allocation#USAGE_SHARED}), so copying between bitmap and allocation is only a sync, and
+ * are reused as long as the same bitmaps come back. Everything is released by {@link #destroy()}
+ * or when {@link BlurResources} trims memory, and rebuilt on next use.
+ */
+public class RenderScriptBlurEngine implements BlurEngine, ComponentCallbacks2 {
+    private static final int MAX_CACHED_ALLOCATIONS = 4;
+    private static final float MAX_RADIUS = 25;
+
+    private static RenderScriptBlurEngine sInstance;
+
+    private final Context mContext;
+    private RenderScript mRenderScript;
+    private ScriptIntrinsicBlur mBlurScript;
+    private final LinkedHashMap<Bitmap, Allocation> mAllocations = new LinkedHashMap<>(MAX_CACHED_ALLOCATIONS, 0.75f, true);
+
+    public static synchronized RenderScriptBlurEngine getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new RenderScriptBlurEngine(context.getApplicationContext());
+            BlurResources.getInstance(context).registerEngine(sInstance);
+        }
+        return sInstance;
+    }
+
+    private RenderScriptBlurEngine(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Blur origin into a newly created ARGB_8888 bitmap of the same size. Origin in any other
+     * config is converted first, as the blur intrinsic only takes ARGB_8888.
+     */
+    public Bitmap blur(@NonNull Bitmap origin, @FloatRange(from = 0, to = 25) float radius) {
+        Bitmap input = origin;
+        if (origin.getConfig() != Bitmap.Config.ARGB_8888) {
+            input = origin.copy(Bitmap.Config.ARGB_8888, false);
+            if (input == null) {
+                throw new IllegalArgumentException("Cannot convert " + origin.getConfig() + " to ARGB_8888");
+            }
+        }
+        Bitmap output = Bitmap.createBitmap(origin.getWidth(), origin.getHeight(), Bitmap.Config.ARGB_8888);
+        try {
+            blur(input, output, radius);
+        } finally {
+            if (input != origin) {
+                input.recycle();
+            }
+        }
+        return output;
+    }
+
+    @Override
+    public synchronized void blur(@NonNull Bitmap input, @NonNull Bitmap output, @FloatRange(from = 0, to = 25) float radius) {
+        if (input == output) {
+            throw new IllegalArgumentException("input and output can not be the same bitmap");
+        }
+        if (input.getWidth() != output.getWidth() || input.getHeight() != output.getHeight()) {
+            throw new IllegalArgumentException("input and output must have the same size");
+        }
+        ensureScript();
+        Allocation in = obtainAllocation(input);
+        Allocation out = obtainAllocation(output);
+        in.copyFrom(input);
+        mBlurScript.setRadius(radius);
+        mBlurScript.setInput(in);
+        mBlurScript.forEach(out);
+        out.copyTo(output);
+    }
+
+    /**
+     * {@link ScriptIntrinsicBlur} is created for {@link Element#U8_4} and only blurs ARGB_8888.
+     */
+    @Override
+    public boolean supports(@NonNull Bitmap.Config config) {
+        return config == Bitmap.Config.ARGB_8888;
+    }
+
+    @Override
+    public float getMaxRadius() {
+        return MAX_RADIUS;
+    }
+
+    /**
+     * Release all cached allocations, the script and the RenderScript context. The engine stays
+     * usable and will recreate them lazily.
+     */
+    @Override
+    public synchronized void destroy() {
+        releaseAllocations();
+        if (mBlurScript != null) {
+            mBlurScript.destroy();
+            mBlurScript = null;
+        }
+        if (mRenderScript != null) {
+            mRenderScript.destroy();
+            mRenderScript = null;
+        }
+    }
+
+    private void ensureScript() {
+        if (mRenderScript == null) {
+            mRenderScript = RenderScript.create(mContext);
+        }
+        if (mBlurScript == null) {
+            mBlurScript = ScriptIntrinsicBlur.create(mRenderScript, Element.U8_4(mRenderScript));
+        }
+    }
+
+    private Allocation obtainAllocation(Bitmap bitmap) {
+        Allocation allocation = mAllocations.get(bitmap);
+        if (allocation != null) {
+            return allocation;
+        }
+        evictRecycled();
+        if (mAllocations.size() >= MAX_CACHED_ALLOCATIONS) {
+            Iterator<Map.Entry<Bitmap, Allocation>> iterator = mAllocations.entrySet().iterator();
+            iterator.next().getValue().destroy();
+            iterator.remove();
+        }
+        allocation = Allocation.createFromBitmap(mRenderScript, bitmap, Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT | Allocation.USAGE_SHARED);
+        mAllocations.put(bitmap, allocation);
+        return allocation;
+    }
+
+    private void evictRecycled() {
+        Iterator<Map.Entry<Bitmap, Allocation>> iterator = mAllocations.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Bitmap, Allocation> entry = iterator.next();
+            if (entry.getKey().isRecycled()) {
+                entry.getValue().destroy();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void releaseAllocations() {
+        for (Allocation allocation : mAllocations.values()) {
+            allocation.destroy();
+        }
+        mAllocations.clear();
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            destroy();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            releaseAllocations();
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        destroy();
+    }
+}
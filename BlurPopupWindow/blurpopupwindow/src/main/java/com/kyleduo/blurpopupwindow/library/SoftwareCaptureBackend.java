@@ -0,0 +1,57 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.Window;
+
+/**
+ * {@link CaptureBackend} drawing the decor view into the bitmap with a software canvas, on the
+ * main thread. Works everywhere, but renders the whole hierarchy in software, skips hardware
+ * layers and leaves SurfaceView and TextureView content black.
+ */
+public class SoftwareCaptureBackend implements CaptureBackend {
+    private static SoftwareCaptureBackend sInstance;
+
+    public static synchronized SoftwareCaptureBackend getInstance() {
+        if (sInstance == null) {
+            sInstance = new SoftwareCaptureBackend();
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void capture(@NonNull Window window, @NonNull Rect source, @NonNull Bitmap target, @NonNull Callback callback) {
+        draw(window.getDecorView(), source, target);
+        callback.onCaptureFinished(null);
+    }
+
+    /**
+     * Draw the area source of decorView scaled into target.
+     */
+    @MainThread
+    static void draw(View decorView, Rect source, Bitmap target) {
+        target.eraseColor(target.hasAlpha() ? Color.TRANSPARENT : Color.WHITE);
+        Canvas canvas = new Canvas(target);
+        int saveCount = 0;
+        boolean scaled = target.getWidth() != source.width() || target.getHeight() != source.height();
+        if (source.left != 0 || source.top != 0 || scaled) {
+            saveCount = canvas.save();
+            if (scaled) {
+                canvas.scale(target.getWidth() / (float) source.width(), target.getHeight() / (float) source.height());
+            }
+            canvas.translate(-source.left, -source.top);
+        }
+        if (decorView.getBackground() == null) {
+            canvas.drawColor(0xffffffff);
+        }
+        decorView.draw(canvas);
+        if (saveCount != 0) {
+            canvas.restoreToCount(saveCount);
+        }
+    }
+}
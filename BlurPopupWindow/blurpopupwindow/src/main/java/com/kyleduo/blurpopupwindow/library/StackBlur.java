@@ -0,0 +1,340 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stack blur (Mario Klingemann's algorithm) on ARGB int pixels or RGB 565 short pixels.
+ * <p>
+ * The horizontal pass is split into bands of rows and the vertical pass into bands of columns,
+ * each band running on a worker of a fixed pool. Pixels are blurred in place. This class has no
+ * Android dependency.
+ */
+public class StackBlur {
+    private static final int MIN_PIXELS_PER_BAND = 16 * 1024;
+
+    private static StackBlur sDefault;
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
+    /**
+     * Shared instance whose pool has one thread per available core.
+     */
+    public static synchronized StackBlur getDefault() {
+        if (sDefault == null) {
+            int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+            sDefault = new StackBlur(cores > 1 ? Executors.newFixedThreadPool(cores, new WorkerFactory()) : null, cores);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param executor    executor running the bands, or null to blur on the calling thread.
+     * @param parallelism number of bands each pass is split into.
+     */
+    public StackBlur(ExecutorService executor, int parallelism) {
+        mExecutor = executor;
+        mParallelism = executor == null ? 1 : Math.max(1, parallelism);
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Blur pixels in place.
+     *
+     * @param pixels ARGB pixels, row by row.
+     * @param width  width of the image.
+     * @param height height of the image.
+     * @param radius blur radius in pixels. Nothing happens if it is smaller than 1.
+     */
+    public void blur(final int[] pixels, final int width, final int height, final int radius) {
+        if (radius < 1 || width <= 0 || height <= 0) {
+            return;
+        }
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("pixels too short: " + pixels.length + " < " + width + "x" + height);
+        }
+        forEachBand(height, width, new Band() {
+            @Override
+            public void run(int start, int end) {
+                blurRows(pixels, width, height, radius, start, end);
+            }
+        });
+        forEachBand(width, height, new Band() {
+            @Override
+            public void run(int start, int end) {
+                blurColumns(pixels, width, height, radius, start, end);
+            }
+        });
+    }
+
+    /**
+     * Blur opaque RGB 565 pixels in place, as stored by a {@link android.graphics.Bitmap.Config#RGB_565}
+     * bitmap. Channels are expanded to 8 bits while summing and rounded back when stored.
+     *
+     * @param pixels RGB 565 pixels, row by row.
+     * @param width  width of the image.
+     * @param height height of the image.
+     * @param stride pixels from the start of one row to the start of the next, at least width.
+     * @param radius blur radius in pixels. Nothing happens if it is smaller than 1.
+     */
+    public void blur565(final short[] pixels, final int width, final int height, final int stride, final int radius) {
+        if (radius < 1 || width <= 0 || height <= 0) {
+            return;
+        }
+        if (stride < width || pixels.length < stride * (height - 1) + width) {
+            throw new IllegalArgumentException("pixels too short: " + pixels.length + " < " + width + "x" + height + " with stride " + stride);
+        }
+        forEachBand(height, width, new Band() {
+            @Override
+            public void run(int start, int end) {
+                int[] stack = new int[radius * 2 + 1];
+                for (int y = start; y < end; y++) {
+                    blurLine565(pixels, y * stride, 1, width, radius, stack);
+                }
+            }
+        });
+        forEachBand(width, height, new Band() {
+            @Override
+            public void run(int start, int end) {
+                int[] stack = new int[radius * 2 + 1];
+                for (int x = start; x < end; x++) {
+                    blurLine565(pixels, x, stride, height, radius, stack);
+                }
+            }
+        });
+    }
+
+    /**
+     * Part of a pass working on lines [start, end).
+     */
+    interface Band {
+        void run(int start, int end);
+    }
+
+    /**
+     * Split count lines of lineLength pixels into bands, run them on the pool and wait for all of
+     * them. Small passes run on the calling thread.
+     */
+    void forEachBand(int count, int lineLength, final Band band) {
+        int bands = (int) Math.min(Math.min(mParallelism, count), Math.max(1, (long) count * lineLength / MIN_PIXELS_PER_BAND));
+        if (bands <= 1) {
+            band.run(0, count);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(bands);
+        for (int i = 0; i < bands; i++) {
+            final int start = count * i / bands;
+            final int end = count * (i + 1) / bands;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    band.run(start, end);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : mExecutor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Blur interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Blur failed", e.getCause());
+        }
+    }
+
+    static void blurRows(int[] pixels, int width, int height, int radius, int start, int end) {
+        int[] stack = new int[radius * 2 + 1];
+        for (int y = start; y < end; y++) {
+            blurLine(pixels, y * width, 1, width, radius, stack);
+        }
+    }
+
+    static void blurColumns(int[] pixels, int width, int height, int radius, int start, int end) {
+        int[] stack = new int[radius * 2 + 1];
+        for (int x = start; x < end; x++) {
+            blurLine(pixels, x, width, height, radius, stack);
+        }
+    }
+
+    /**
+     * Blur one line of pixels in place. Pixel i of the line is pixels[offset + i * stride].
+     */
+    static void blurLine(int[] pixels, int offset, int stride, int length, int radius, int[] stack) {
+        final int div = radius * 2 + 1;
+        final int weightSum = (radius + 1) * (radius + 1);
+        final int last = length - 1;
+
+        int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+        int inA = 0, inR = 0, inG = 0, inB = 0;
+        int outA = 0, outR = 0, outG = 0, outB = 0;
+
+        for (int i = -radius; i <= radius; i++) {
+            int p = pixels[offset + Math.min(last, Math.max(i, 0)) * stride];
+            stack[i + radius] = p;
+            int weight = radius + 1 - Math.abs(i);
+            int a = p >>> 24, r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, b = p & 0xff;
+            sumA += a * weight;
+            sumR += r * weight;
+            sumG += g * weight;
+            sumB += b * weight;
+            if (i > 0) {
+                inA += a;
+                inR += r;
+                inG += g;
+                inB += b;
+            } else {
+                outA += a;
+                outR += r;
+                outG += g;
+                outB += b;
+            }
+        }
+
+        int stackPointer = radius;
+        for (int x = 0; x < length; x++) {
+            pixels[offset + x * stride] = (sumA / weightSum) << 24 | (sumR / weightSum) << 16 | (sumG / weightSum) << 8 | (sumB / weightSum);
+
+            sumA -= outA;
+            sumR -= outR;
+            sumG -= outG;
+            sumB -= outB;
+
+            // The slot leaving the window is reused for the pixel entering it. Reading ahead of x
+            // is safe in place since those pixels are not written yet.
+            int stackStart = (stackPointer + radius + 1) % div;
+            int p = stack[stackStart];
+            outA -= p >>> 24;
+            outR -= (p >> 16) & 0xff;
+            outG -= (p >> 8) & 0xff;
+            outB -= p & 0xff;
+
+            p = pixels[offset + Math.min(x + radius + 1, last) * stride];
+            stack[stackStart] = p;
+            inA += p >>> 24;
+            inR += (p >> 16) & 0xff;
+            inG += (p >> 8) & 0xff;
+            inB += p & 0xff;
+
+            sumA += inA;
+            sumR += inR;
+            sumG += inG;
+            sumB += inB;
+
+            stackPointer = (stackPointer + 1) % div;
+            p = stack[stackPointer];
+            outA += p >>> 24;
+            outR += (p >> 16) & 0xff;
+            outG += (p >> 8) & 0xff;
+            outB += p & 0xff;
+            inA -= p >>> 24;
+            inR -= (p >> 16) & 0xff;
+            inG -= (p >> 8) & 0xff;
+            inB -= p & 0xff;
+        }
+    }
+
+    /**
+     * {@link #blurLine} for RGB 565 pixels. The stack holds pixels expanded to 0xRRGGBB.
+     */
+    static void blurLine565(short[] pixels, int offset, int stride, int length, int radius, int[] stack) {
+        final int div = radius * 2 + 1;
+        final int weightSum = (radius + 1) * (radius + 1);
+        final int last = length - 1;
+
+        int sumR = 0, sumG = 0, sumB = 0;
+        int inR = 0, inG = 0, inB = 0;
+        int outR = 0, outG = 0, outB = 0;
+
+        for (int i = -radius; i <= radius; i++) {
+            int p = expand565(pixels[offset + Math.min(last, Math.max(i, 0)) * stride]);
+            stack[i + radius] = p;
+            int weight = radius + 1 - Math.abs(i);
+            int r = p >> 16, g = (p >> 8) & 0xff, b = p & 0xff;
+            sumR += r * weight;
+            sumG += g * weight;
+            sumB += b * weight;
+            if (i > 0) {
+                inR += r;
+                inG += g;
+                inB += b;
+            } else {
+                outR += r;
+                outG += g;
+                outB += b;
+            }
+        }
+
+        int stackPointer = radius;
+        for (int x = 0; x < length; x++) {
+            pixels[offset + x * stride] = pack565(sumR / weightSum, sumG / weightSum, sumB / weightSum);
+
+            sumR -= outR;
+            sumG -= outG;
+            sumB -= outB;
+
+            int stackStart = (stackPointer + radius + 1) % div;
+            int p = stack[stackStart];
+            outR -= p >> 16;
+            outG -= (p >> 8) & 0xff;
+            outB -= p & 0xff;
+
+            p = expand565(pixels[offset + Math.min(x + radius + 1, last) * stride]);
+            stack[stackStart] = p;
+            inR += p >> 16;
+            inG += (p >> 8) & 0xff;
+            inB += p & 0xff;
+
+            sumR += inR;
+            sumG += inG;
+            sumB += inB;
+
+            stackPointer = (stackPointer + 1) % div;
+            p = stack[stackPointer];
+            outR += p >> 16;
+            outG += (p >> 8) & 0xff;
+            outB += p & 0xff;
+            inR -= p >> 16;
+            inG -= (p >> 8) & 0xff;
+            inB -= p & 0xff;
+        }
+    }
+
+    /**
+     * @return 565 pixel as 0xRRGGBB, replicating high bits into the low ones so 0x1f maps to 0xff.
+     */
+    static int expand565(short pixel) {
+        int r = (pixel >> 11) & 0x1f;
+        int g = (pixel >> 5) & 0x3f;
+        int b = pixel & 0x1f;
+        return (r << 3 | r >> 2) << 16 | (g << 2 | g >> 4) << 8 | (b << 3 | b >> 2);
+    }
+
+    static short pack565(int r, int g, int b) {
+        return (short) (((r * 31 + 127) / 255) << 11 | ((g * 63 + 127) / 255) << 5 | ((b * 31 + 127) / 255));
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StackBlur #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
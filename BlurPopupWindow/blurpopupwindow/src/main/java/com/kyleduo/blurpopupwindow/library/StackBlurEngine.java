@@ -0,0 +1,82 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Pure Java {@link BlurEngine} using {@link StackBlur}. Needs no RenderScript and spreads the work
+ * over all cores. RGB_565 bitmaps are blurred in their own 16 bit format, without converting
+ * them to ARGB.
+ */
+public class StackBlurEngine implements BlurEngine {
+    private static final float MAX_RADIUS = 250;
+
+    private static StackBlurEngine sInstance;
+
+    private final StackBlur mStackBlur;
+    private int[] mPixels;
+    private short[] mPixels565;
+
+    public static synchronized StackBlurEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new StackBlurEngine(StackBlur.getDefault());
+        }
+        return sInstance;
+    }
+
+    public StackBlurEngine(@NonNull StackBlur stackBlur) {
+        mStackBlur = stackBlur;
+    }
+
+    @Override
+    public synchronized void blur(@NonNull Bitmap input, @NonNull Bitmap output, float radius) {
+        if (input.getConfig() == Bitmap.Config.RGB_565) {
+            blur565(input, output, radius);
+            return;
+        }
+        int width = input.getWidth();
+        int height = input.getHeight();
+        if (mPixels == null || mPixels.length < width * height) {
+            mPixels = new int[width * height];
+        }
+        input.getPixels(mPixels, 0, width, 0, 0, width, height);
+        mStackBlur.blur(mPixels, width, height, Math.round(radius));
+        output.setPixels(mPixels, 0, width, 0, 0, width, height);
+    }
+
+    private void blur565(Bitmap input, Bitmap output, float radius) {
+        int stride = input.getRowBytes() / 2;
+        int length = stride * input.getHeight();
+        if (mPixels565 == null || mPixels565.length < length) {
+            mPixels565 = new short[length];
+        }
+        input.copyPixelsToBuffer(ShortBuffer.wrap(mPixels565, 0, length));
+        mStackBlur.blur565(mPixels565, input.getWidth(), input.getHeight(), stride, Math.round(radius));
+        output.copyPixelsFromBuffer(ShortBuffer.wrap(mPixels565, 0, length));
+    }
+
+    @Override
+    public boolean supports(@NonNull Bitmap.Config config) {
+        return config == Bitmap.Config.ARGB_8888 || config == Bitmap.Config.RGB_565;
+    }
+
+    @Override
+    public float getMaxRadius() {
+        return MAX_RADIUS;
+    }
+
+    /**
+     * @return bytes of the pixel buffers kept between blurs.
+     */
+    synchronized long getRetainedBytes() {
+        return (mPixels != null ? mPixels.length * 4L : 0) + (mPixels565 != null ? mPixels565.length * 2L : 0);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        mPixels = null;
+        mPixels565 = null;
+    }
+}
@@ -0,0 +1,68 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import android.app.Activity;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.os.Build;
+import android.support.annotation.MainThread;
+import android.util.DisplayMetrics;
+import android.view.Display;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Status and navigation bar heights of an activity, measured once per configuration.
+ * <p>
+ * Measuring looks up a resource by name and, before Android 4.2, calls a hidden display method
+ * through reflection, so it is not repeated for every show.
+ */
+final class SystemBarHeights {
+    private static final Map<Activity, SystemBarHeights> sCache = new WeakHashMap<>();
+
+    private final Configuration mConfiguration;
+    final int mStatusBarHeight;
+    final int mNavigationBarHeight;
+
+    private SystemBarHeights(Activity activity, Configuration configuration) {
+        mConfiguration = new Configuration(configuration);
+        mStatusBarHeight = getStatusBarHeight(activity.getResources());
+        mNavigationBarHeight = getNaviHeight(activity);
+    }
+
+    @MainThread
+    static SystemBarHeights get(Activity activity) {
+        Configuration configuration = activity.getResources().getConfiguration();
+        SystemBarHeights heights = sCache.get(activity);
+        if (heights == null || !heights.mConfiguration.equals(configuration)) {
+            heights = new SystemBarHeights(activity, configuration);
+            sCache.put(activity, heights);
+        }
+        return heights;
+    }
+
+    private static int getStatusBarHeight(Resources resources) {
+        int resourceId = resources.getIdentifier("status_bar_height", "dimen", "android");
+        return resourceId > 0 ? resources.getDimensionPixelSize(resourceId) : 0;
+    }
+
+    private static int getNaviHeight(Activity activity) {
+        Display display = activity.getWindowManager().getDefaultDisplay();
+        int contentHeight = activity.getResources().getDisplayMetrics().heightPixels;
+        int realHeight = 0;
+        if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            final DisplayMetrics metrics = new DisplayMetrics();
+            display.getRealMetrics(metrics);
+            realHeight = metrics.heightPixels;
+        } else {
+            try {
+                Method mGetRawH = Display.class.getMethod("getRawHeight");
+                realHeight = (Integer) mGetRawH.invoke(display);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return realHeight - contentHeight;
+    }
+}
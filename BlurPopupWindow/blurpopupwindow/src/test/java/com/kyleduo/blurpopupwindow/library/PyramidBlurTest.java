@@ -0,0 +1,53 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of {@link PyramidBlur}.
+ */
+public class PyramidBlurTest {
+
+    @Test
+    public void levelsGrowWithRadius() throws Exception {
+        assertEquals(0, PyramidBlur.levelsFor(5, 400, 400));
+        assertEquals(1, PyramidBlur.levelsFor(10, 400, 400));
+        assertEquals(4, PyramidBlur.levelsFor(60, 400, 400));
+        assertEquals(1, PyramidBlur.levelsFor(60, 3, 3));
+    }
+
+    @Test
+    public void uniformImageIsUnchanged() throws Exception {
+        int[] pixels = new int[101 * 77];
+        Arrays.fill(pixels, 0xff204080);
+        new PyramidBlur(new StackBlur(null, 1)).blur(pixels, 101, 77, 60);
+        for (int pixel : pixels) {
+            assertEquals(0xff204080, pixel);
+        }
+    }
+
+    @Test
+    public void largeRadiusSpreadsFar() throws Exception {
+        int width = 200;
+        int height = 200;
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, 0xff000000);
+        for (int y = 90; y < 110; y++) {
+            for (int x = 90; x < 110; x++) {
+                pixels[y * width + x] = 0xffffffff;
+            }
+        }
+        new PyramidBlur(new StackBlur(null, 1)).blur(pixels, width, height, 60);
+
+        int center = pixels[100 * width + 100] & 0xff;
+        int near = pixels[100 * width + 140] & 0xff;
+        int far = pixels[100 * width + 199] & 0xff;
+        assertTrue(center < 255);
+        assertTrue(near > 0);
+        assertTrue(center > near);
+        assertTrue(near >= far);
+    }
+}
@@ -0,0 +1,164 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of {@link RecursiveGaussianBlur} against a direct Gaussian convolution.
+ */
+public class RecursiveGaussianBlurTest {
+
+    @Test
+    public void sigmaMatchesRenderScript() throws Exception {
+        assertEquals(0.6f, RecursiveGaussianBlur.sigmaFor(0), 1e-6f);
+        assertEquals(4.6f, RecursiveGaussianBlur.sigmaFor(10), 1e-6f);
+        assertEquals(10.6f, RecursiveGaussianBlur.sigmaFor(25), 1e-5f);
+    }
+
+    @Test
+    public void uniformImageIsUnchanged() throws Exception {
+        int[] pixels = new int[101 * 77];
+        Arrays.fill(pixels, 0xff204080);
+        new RecursiveGaussianBlur(new StackBlur(null, 1)).blur(pixels, 101, 77, 60);
+        for (int pixel : pixels) {
+            assertEquals(0xff204080, pixel);
+        }
+    }
+
+    @Test
+    public void smallRadiusMatchesReferenceGaussian() throws Exception {
+        // Direct kernel below MIN_RECURSIVE_SIGMA: only rounding differs.
+        for (float radius : new float[]{0.5f, 1, 2, 3}) {
+            assertMatchesReference(160, 120, radius, 1, 0.5);
+        }
+    }
+
+    @Test
+    public void largeRadiusMatchesReferenceGaussian() throws Exception {
+        // Young-van Vliet is within a few percent of a Gaussian on hard edges, closer as sigma
+        // grows. Edges of the image are exact.
+        for (float radius : new float[]{5, 10, 25, 60}) {
+            assertMatchesReference(160, 120, radius, 8, 1.5);
+        }
+    }
+
+    @Test
+    public void hugeRadiusMatchesReferenceGaussian() throws Exception {
+        // Same cost as any other radius, and still stable with sigma far above the image size,
+        // where the result mostly weighs the clamped edges against each other.
+        assertMatchesReference(64, 48, 1000, 8, 3);
+    }
+
+    @Test
+    public void coefficientsAreKeptForSameSigma() throws Exception {
+        RecursiveGaussianBlur blur = new RecursiveGaussianBlur(new StackBlur(null, 1));
+        RecursiveGaussianBlur.Coefficients coefficients = blur.coefficientsFor(10.6f);
+        assertSame(coefficients, blur.coefficientsFor(10.6f));
+        assertNotSame(coefficients, blur.coefficientsFor(4.6f));
+    }
+
+    @Test
+    public void parallelMatchesSerial() throws Exception {
+        int width = 300;
+        int height = 200;
+        int[] serial = noiseImage(width, height);
+        int[] parallel = serial.clone();
+        new RecursiveGaussianBlur(new StackBlur(null, 1)).blur(serial, width, height, 12);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            new RecursiveGaussianBlur(new StackBlur(executor, 4)).blur(parallel, width, height, 12);
+        } finally {
+            executor.shutdown();
+        }
+        assertArrayEquals(serial, parallel);
+    }
+
+    private static void assertMatchesReference(int width, int height, float radius, int maxError, double maxRmsError) {
+        int[] image = noiseImage(width, height);
+        int[] pixels = image.clone();
+        new RecursiveGaussianBlur(new StackBlur(null, 1)).blur(pixels, width, height, radius);
+        int[] reference = referenceGaussian(image, width, height, RecursiveGaussianBlur.sigmaFor(radius));
+
+        int worst = 0;
+        double squares = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int error = Math.abs(((reference[i] >>> shift) & 0xff) - ((pixels[i] >>> shift) & 0xff));
+                worst = Math.max(worst, error);
+                squares += error * error;
+            }
+        }
+        double rms = Math.sqrt(squares / (pixels.length * 4));
+        assertTrue("radius " + radius + ": off by " + worst, worst <= maxError);
+        assertTrue("radius " + radius + ": rms " + rms, rms <= maxRmsError);
+    }
+
+    private static int[] noiseImage(int width, int height) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Smooth shapes plus noise, so both edges and fine detail are covered.
+                int base = ((x / 20 + y / 15) % 2) * 160;
+                int r = Math.min(255, base + random.nextInt(96));
+                int g = Math.min(255, (x * 255 / width + random.nextInt(32)));
+                int b = random.nextInt(256);
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Separable Gaussian convolution with a kernel truncated at 4 sigma and clamped edges.
+     */
+    private static int[] referenceGaussian(int[] pixels, int width, int height, float sigma) {
+        int radius = (int) Math.ceil(4 * sigma);
+        double[] kernel = new double[radius * 2 + 1];
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            kernel[i + radius] = Math.exp(-i * i / (2.0 * sigma * sigma));
+            sum += kernel[i + radius];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= sum;
+        }
+        double[][] channels = new double[4][width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            for (int c = 0; c < 4; c++) {
+                channels[c][i] = (pixels[i] >>> (24 - c * 8)) & 0xff;
+            }
+        }
+        int[] result = new int[width * height];
+        for (int c = 0; c < 4; c++) {
+            double[] rows = new double[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double value = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int sx = Math.min(width - 1, Math.max(0, x + k));
+                        value += kernel[k + radius] * channels[c][y * width + sx];
+                    }
+                    rows[y * width + x] = value;
+                }
+            }
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double value = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int sy = Math.min(height - 1, Math.max(0, y + k));
+                        value += kernel[k + radius] * rows[sy * width + x];
+                    }
+                    result[y * width + x] |= ((int) Math.round(value)) << (24 - c * 8);
+                }
+            }
+        }
+        return result;
+    }
+}
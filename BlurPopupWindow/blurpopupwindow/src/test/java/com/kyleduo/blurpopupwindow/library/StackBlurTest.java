@@ -0,0 +1,127 @@
+package com.kyleduo.blurpopupwindow.library;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of {@link StackBlur}.
+ */
+public class StackBlurTest {
+
+    private static int[] randomPixels(int size, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[size];
+        for (int i = 0; i < size; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    @Test
+    public void uniformImageIsUnchanged() throws Exception {
+        int[] pixels = new int[64 * 48];
+        Arrays.fill(pixels, 0xff336699);
+        new StackBlur(null, 1).blur(pixels, 64, 48, 10);
+        for (int pixel : pixels) {
+            assertEquals(0xff336699, pixel);
+        }
+    }
+
+    @Test
+    public void radiusZeroIsNoop() throws Exception {
+        int[] pixels = randomPixels(32 * 32, 1);
+        int[] expected = pixels.clone();
+        new StackBlur(null, 1).blur(pixels, 32, 32, 0);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void impulseSpreadsSymmetrically() throws Exception {
+        int size = 41;
+        int[] pixels = new int[size * size];
+        Arrays.fill(pixels, 0xff000000);
+        pixels[20 * size + 20] = 0xffffffff;
+        new StackBlur(null, 1).blur(pixels, size, size, 4);
+
+        int center = pixels[20 * size + 20] & 0xff;
+        assertTrue(center > 0 && center < 255);
+        assertEquals(pixels[20 * size + 17], pixels[20 * size + 23]);
+        assertEquals(pixels[17 * size + 20], pixels[23 * size + 20]);
+        assertEquals(pixels[20 * size + 17], pixels[17 * size + 20]);
+        assertEquals(0xff000000, pixels[20 * size + 25]);
+        assertEquals(0xff000000, pixels[0]);
+    }
+
+    @Test
+    public void parallelMatchesSerial() throws Exception {
+        int width = 400;
+        int height = 300;
+        int[] serial = randomPixels(width * height, 42);
+        int[] parallel = serial.clone();
+
+        new StackBlur(null, 1).blur(serial, width, height, 12);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            new StackBlur(executor, 4).blur(parallel, width, height, 12);
+        } finally {
+            executor.shutdown();
+        }
+        assertArrayEquals(serial, parallel);
+    }
+
+    @Test
+    public void radiusLargerThanImage() throws Exception {
+        int[] pixels = randomPixels(5 * 3, 7);
+        StackBlur.getDefault().blur(pixels, 5, 3, 25);
+        for (int pixel : pixels) {
+            assertEquals(0xff, pixel >>> 24);
+        }
+    }
+
+    @Test
+    public void rgb565RoundTrips() throws Exception {
+        for (int r = 0; r < 32; r++) {
+            for (int g = 0; g < 64; g++) {
+                short pixel = (short) (r << 11 | g << 5 | (31 - r));
+                int rgb = StackBlur.expand565(pixel);
+                assertEquals(pixel, StackBlur.pack565(rgb >> 16, (rgb >> 8) & 0xff, rgb & 0xff));
+            }
+        }
+    }
+
+    @Test
+    public void rgb565MatchesArgbWithinPrecision() throws Exception {
+        int width = 120;
+        int height = 80;
+        int stride = 128;
+        int[] argb = randomPixels(width * height, 3);
+        short[] rgb565 = new short[stride * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int p = argb[y * width + x];
+                rgb565[y * stride + x] = StackBlur.pack565((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff);
+                argb[y * width + x] = 0xff000000 | StackBlur.expand565(rgb565[y * stride + x]);
+            }
+        }
+
+        StackBlur stackBlur = new StackBlur(null, 1);
+        stackBlur.blur(argb, width, height, 6);
+        stackBlur.blur565(rgb565, width, height, stride, 6);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int expected = argb[y * width + x];
+                int actual = StackBlur.expand565(rgb565[y * stride + x]);
+                // The row pass is rounded to 565 before the column pass runs.
+                assertEquals((expected >> 16) & 0xff, actual >> 16, 12);
+                assertEquals((expected >> 8) & 0xff, (actual >> 8) & 0xff, 6);
+                assertEquals(expected & 0xff, actual & 0xff, 12);
+            }
+        }
+    }
+}